@@ -1,19 +1,17 @@
 package com.ota;
 
 import android.content.Context;
+import com.ota.core.Layout;
 import java.io.File;
-import android.util.Log;
 
 public class FolderUtils {
     private static final String TAG = "FolderUtils";
-    private static final String OTA_DIR = "ota";
-    private static final String DOWNLOAD_DIR = "download";
 
     public static File getOtaDirectory(Context context) {
-        File otaDir = new File(context.getFilesDir(), OTA_DIR);
+        File otaDir = new File(context.getFilesDir(), Layout.OTA_DIR);
         if (!otaDir.exists()) {
             if (!otaDir.mkdirs()) {
-                Log.e(TAG, "Failed to create OTA directory");
+                OTALog.e(TAG, "Failed to create OTA directory");
                 return null;
             }
         }
@@ -21,21 +19,38 @@ public class FolderUtils {
     }
 
     public static File getDownloadDirectory(Context context) {
-        File downloadDir = new File(getOtaDirectory(context), DOWNLOAD_DIR);
+        File downloadDir = Layout.downloadDirectory(getOtaDirectory(context));
         if (!downloadDir.exists()) {
             if (!downloadDir.mkdirs()) {
-                Log.e(TAG, "Failed to create download directory");
+                OTALog.e(TAG, "Failed to create download directory");
                 return null;
             }
         }
         return downloadDir;
     }
 
+    public static File getBlobDirectory(File otaDirectory) {
+        return Layout.blobDirectory(otaDirectory);
+    }
+
+    public static File getTrashDirectory(File otaDirectory) {
+        return Layout.trashDirectory(otaDirectory);
+    }
+
+    public static File getStagingDirectory(File otaDirectory) {
+        return Layout.stagingDirectory(otaDirectory);
+    }
+
+    // Directories directly under the ota directory that are not app versions
+    public static boolean isReservedDirectory(String name) {
+        return Layout.isReservedDirectory(name);
+    }
+
     public static File getVersionDirectory(Context context, String version) {
-        File versionDir = new File(getOtaDirectory(context), version);
+        File versionDir = Layout.versionDirectory(getOtaDirectory(context), version);
         if (!versionDir.exists()) {
             if (!versionDir.mkdirs()) {
-                Log.e(TAG, "Failed to create version directory");
+                OTALog.e(TAG, "Failed to create version directory");
                 return null;
             }
         }
@@ -43,10 +58,6 @@ public class FolderUtils {
     }
 
     public static File[] getAllFilesInDirectory(File directory) {
-        if (directory == null || !directory.exists()) {
-            return new File[0];
-        }
-        File[] files = directory.listFiles();
-        return files != null ? files : new File[0];
+        return Layout.listFiles(directory);
     }
 } 
\ No newline at end of file
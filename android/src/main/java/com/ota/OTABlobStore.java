@@ -0,0 +1,145 @@
+package com.ota;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import com.ota.core.StreamCopy;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Content-addressed store under ota/blobs/<2 hex>/<sha256>. Bundle folders hold hardlinks
+// to these blobs, so a file shared by several bundles is stored once. The link count of a
+// blob is its reference count: a blob with a single link is only referenced by the store.
+public class OTABlobStore {
+    private static final String TAG = "OTABlobStore";
+
+    // Known hashes are keyed by path relative to the bundle folder, files without one are hashed here
+    public static void ingest(File otaDirectory, File bundleFolder, Map<String, String> hashes) {
+        File blobDirectory = FolderUtils.getBlobDirectory(otaDirectory);
+        String rootPath = bundleFolder.getAbsolutePath() + File.separator;
+        int linked = 0;
+        int stored = 0;
+        try {
+            for (File file : listFilesRecursive(bundleFolder)) {
+                String relativePath = file.getAbsolutePath().substring(rootPath.length());
+                if (relativePath.equals(OTAIntegrity.FINGERPRINT_FILE) || linkCount(file) > 1) {
+                    // Files linked from another bundle already point at their blob
+                    continue;
+                }
+
+                String hash = hashes != null ? hashes.get(relativePath) : null;
+                if (hash == null) {
+                    hash = OTAIntegrity.sha256(file);
+                }
+                File blob = blobFile(blobDirectory, hash);
+
+                if (blob.exists()) {
+                    long blobInode = inode(blob);
+                    if (blobInode != -1 && blobInode == inode(file)) {
+                        continue;
+                    }
+                    // Replace our copy with a link to the stored blob
+                    File link = new File(file.getAbsolutePath() + ".link");
+                    if (link(blob, link) && link.renameTo(file)) {
+                        linked++;
+                    } else if (link.exists() && !link.delete()) {
+                        OTALog.w(TAG, "Failed to delete: " + link.getAbsolutePath());
+                    }
+                } else {
+                    File parent = blob.getParentFile();
+                    if ((parent.exists() || parent.mkdirs()) && link(file, blob)) {
+                        stored++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Deduplication is an optimisation, the bundle itself is complete either way
+            OTALog.e(TAG, "Failed to ingest bundle into blob store", e);
+        }
+        int storedCount = stored;
+        int linkedCount = linked;
+        OTALog.d(TAG, () -> "Ingested " + bundleFolder.getName() + ": " + storedCount + " new blobs, "
+            + linkedCount + " shared");
+    }
+
+    // Links source to target, copying the file where hardlinks are not available
+    public static void linkOrCopy(File source, File target) throws IOException {
+        if (link(source, target)) {
+            return;
+        }
+        StreamCopy.copyFile(source, target);
+    }
+
+    // The stored blob for hash, null when the store has none. Files are replaced but never
+    // written through, so a blob still holds the content it was hashed with at ingest.
+    public static File find(File otaDirectory, String hash) {
+        if (!hash.matches("[0-9a-f]{64}")) {
+            return null;
+        }
+        File blob = blobFile(FolderUtils.getBlobDirectory(otaDirectory), hash);
+        return blob.isFile() ? blob : null;
+    }
+
+    // Deletes blobs no bundle links to anymore. Returns the number of bytes freed.
+    public static long collectGarbage(File otaDirectory) {
+        long freedBytes = 0;
+        for (File prefix : FolderUtils.getAllFilesInDirectory(FolderUtils.getBlobDirectory(otaDirectory))) {
+            for (File blob : FolderUtils.getAllFilesInDirectory(prefix)) {
+                if (linkCount(blob) <= 1) {
+                    long length = blob.length();
+                    if (blob.delete()) {
+                        freedBytes += length;
+                    } else {
+                        OTALog.e(TAG, "Failed to delete blob: " + blob.getAbsolutePath());
+                    }
+                }
+            }
+        }
+        return freedBytes;
+    }
+
+    private static File blobFile(File blobDirectory, String hash) {
+        return new File(new File(blobDirectory, hash.substring(0, 2)), hash);
+    }
+
+    private static boolean link(File existing, File newPath) {
+        try {
+            Os.link(existing.getAbsolutePath(), newPath.getAbsolutePath());
+            return true;
+        } catch (ErrnoException e) {
+            OTALog.w(TAG, "Hardlink not available for " + newPath.getAbsolutePath() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    static long linkCount(File file) {
+        try {
+            return Os.stat(file.getAbsolutePath()).st_nlink;
+        } catch (ErrnoException e) {
+            // Keep blobs we cannot inspect
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static long inode(File file) {
+        try {
+            return Os.stat(file.getAbsolutePath()).st_ino;
+        } catch (ErrnoException e) {
+            return -1;
+        }
+    }
+
+    private static List<File> listFilesRecursive(File directory) {
+        List<File> files = new ArrayList<>();
+        for (File file : FolderUtils.getAllFilesInDirectory(directory)) {
+            if (file.isDirectory()) {
+                files.addAll(listFilesRecursive(file));
+            } else {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+}
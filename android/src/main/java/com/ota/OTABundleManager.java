@@ -3,84 +3,282 @@ package com.ota;
 import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.util.Log;
+import com.ota.core.BundleFolders;
+import com.ota.core.BundleRetention;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 
 public class OTABundleManager {
     private static final String TAG = "OTABundleManager";
     private static final String DEFAULT_BUNDLE = "assets://index.android.bundle";
+    private static final String BUNDLE_NAME = "index.android.bundle";
+    private static final String POINTER_FILE = "active";
+    // Activation time per bundle folder name, next to the pointer
+    private static final String USAGE_FILE = "used";
+    private static final long STARTUP_CLEANUP_DELAY_MS = 10_000;
+    // Bundles modified this recently may be committed but not activated yet, cleanup keeps them
+    private static final long RECENTLY_COMMITTED_MS = 5 * 60_000L;
+
+    private static volatile String appVersion = null;
+    // Bundle this process started from, its files stay in use until the next launch
+    private static volatile File launchedBundle = null;
     
     public static String getBundleFile(Context context) {
-        Log.d(TAG, "Getting JS bundle file path");
+        long startedAt = System.nanoTime();
+        OTALog.beginSection("OTA.resolveBundle");
+        try {
+            return resolveBundleFile(context);
+        } finally {
+            OTALog.endSection();
+            OTAMetrics.record(OTAMetrics.BUNDLE_RESOLUTION_US, (System.nanoTime() - startedAt) / 1000);
+        }
+    }
+
+    private static String resolveBundleFile(Context context) {
+        OTALog.d(TAG, "Getting JS bundle file path");
         
         try {
-            // Get app version using context
+            // Cleanup of outdated versions runs in the background once startup is done
+            OTACleanupTask.schedule(context, STARTUP_CLEANUP_DELAY_MS);
+
+            File activeBundle = getActiveBundleFolder(context);
+            launchedBundle = activeBundle;
+            if (activeBundle != null) {
+                String bundlePath = new File(activeBundle, BUNDLE_NAME).getAbsolutePath();
+                OTALog.d(TAG, () -> "Using bundle at: " + bundlePath);
+                return bundlePath;
+            }
+        } catch (Exception e) {
+            OTALog.e(TAG, "Error getting bundle file", e);
+        }
+
+        OTALog.d(TAG, "Using default bundle");
+        return DEFAULT_BUNDLE;
+    }
+
+    // The version name cannot change while the process is alive, so ask PackageManager once
+    public static String getAppVersion(Context context) throws PackageManager.NameNotFoundException {
+        String version = appVersion;
+        if (version == null) {
             PackageManager packageManager = context.getPackageManager();
             PackageInfo packageInfo = packageManager.getPackageInfo(
                 context.getPackageName(), 
                 0
             );
-            String appVersion = packageInfo.versionName;
+            version = packageInfo.versionName;
+            appVersion = version;
+        }
+        return version;
+    }
+
+    // Resolves the active bundle folder for the current app version, or null for the default
+    // bundle. Reads the pointer file written on install; the directory scan only runs when
+    // the pointer is missing or stale, and repairs it.
+    public static File getActiveBundleFolder(Context context) throws PackageManager.NameNotFoundException {
+        File otaDirectory = FolderUtils.getOtaDirectory(context);
+        if (otaDirectory == null) {
+            return null;
+        }
+        File versionDirectory = new File(otaDirectory, getAppVersion(context));
+
+        String pointer = readPointer(versionDirectory);
+        if (pointer != null) {
+            File bundleFolder = new File(versionDirectory, pointer);
+            if (isUsableBundle(bundleFolder)) {
+                return bundleFolder;
+            }
+            OTALog.w(TAG, "Active bundle pointer is stale: " + pointer);
+        }
 
-            File otaDirectory = FolderUtils.getOtaDirectory(context);
-            
-            // Add cleanup of outdated versions
-            cleanupOutdatedVersions(otaDirectory, appVersion);
+        File bundleFolder = findNewestBundle(versionDirectory);
+        if (bundleFolder != null) {
+            writePointer(versionDirectory, bundleFolder.getName());
+        } else if (pointer != null) {
+            deletePointer(versionDirectory);
+        }
+        return bundleFolder;
+    }
 
-            File versionDirectory = new File(otaDirectory, appVersion);
+    // Records the activation in the usage index, retention evicts least recently activated
+    // bundles first
+    public static void setActiveBundle(File bundleFolder) {
+        OTALog.d(TAG, () -> "Activating bundle " + bundleFolder.getName());
+        File versionDirectory = bundleFolder.getParentFile();
+        synchronized (OTABundleManager.class) {
+            Map<String, Long> usage = readUsage(versionDirectory);
+            usage.put(bundleFolder.getName(), System.currentTimeMillis());
+            writeUsage(versionDirectory, usage);
+        }
+        writePointer(versionDirectory, bundleFolder.getName());
+    }
 
-            Log.d(TAG, "Checking version directory: " + versionDirectory.getAbsolutePath());
+    // A bundle folder kept by retention that can be activated for rollback, or null
+    public static File findRetainedBundle(Context context, String bundleName) throws PackageManager.NameNotFoundException {
+        File otaDirectory = FolderUtils.getOtaDirectory(context);
+        if (otaDirectory == null || bundleName == null || BundleFolders.parseTimestamp(bundleName) <= 0
+                || bundleName.indexOf('/') >= 0 || bundleName.startsWith(".")) {
+            return null;
+        }
+        File bundleFolder = new File(new File(otaDirectory, getAppVersion(context)), bundleName);
+        return bundleFolder.isDirectory() && isUsableBundle(bundleFolder) ? bundleFolder : null;
+    }
 
-            if (!versionDirectory.exists()) {
-                Log.d(TAG, "Version directory does not exist, using default bundle");
-                return DEFAULT_BUNDLE;
-            }
+    // Bundle folders of the current app version, most recently used first. Bundles that were
+    // never activated follow, newest first.
+    public static List<File> getRetainedBundles(Context context) throws PackageManager.NameNotFoundException {
+        File otaDirectory = FolderUtils.getOtaDirectory(context);
+        if (otaDirectory == null) {
+            return new ArrayList<>();
+        }
+        File versionDirectory = new File(otaDirectory, getAppVersion(context));
+        Map<String, Long> usage = readUsage(versionDirectory);
+        List<File> bundles = BundleFolders.newestFirst(versionDirectory);
+        Collections.sort(bundles, (a, b) -> Long.compare(lastUsed(usage, b), lastUsed(usage, a)));
+        return bundles;
+    }
 
-            File[] contents = versionDirectory.listFiles();
-            if (contents == null || contents.length == 0) {
-                Log.d(TAG, "Version directory is empty, using default bundle");
-                return DEFAULT_BUNDLE;
-            }
+    // When bundleFolder was last activated, 0 when never
+    public static long lastUsed(Map<String, Long> usage, File bundleFolder) {
+        Long used = usage.get(bundleFolder.getName());
+        return used != null ? used : 0;
+    }
 
-            // Find the most recent bundle
-            long mostRecentTimestamp = 0;
-            File activeBundle = null;
-
-            for (File item : contents) {
-                if (item.isDirectory()) {
-                    String[] parts = item.getName().split("_");
-                    if (parts.length > 0) {
-                        String hexTimestamp = parts[parts.length - 1];
-                        try {
-                            long timestamp = Long.parseLong(hexTimestamp, 16);
-                            if (timestamp > mostRecentTimestamp) {
-                                mostRecentTimestamp = timestamp;
-                                activeBundle = item;
-                            }
-                        } catch (NumberFormatException e) {
-                            Log.e(TAG, "Failed to parse timestamp from folder name: " + hexTimestamp, e);
-                        }
-                    }
-                }
+    // Activation times by bundle folder name. Kept in a file of its own because a folder's
+    // modification time also changes whenever entries in it are written or replaced.
+    public static synchronized Map<String, Long> readUsage(File versionDirectory) {
+        Map<String, Long> usage = new HashMap<>();
+        File usageFile = new File(versionDirectory, USAGE_FILE);
+        if (!usageFile.exists()) {
+            return usage;
+        }
+        Properties properties = new Properties();
+        try (FileInputStream in = new FileInputStream(usageFile)) {
+            properties.load(in);
+        } catch (IOException e) {
+            OTALog.e(TAG, "Failed to read bundle usage", e);
+            return usage;
+        }
+        for (String name : properties.stringPropertyNames()) {
+            try {
+                usage.put(name, Long.parseLong(properties.getProperty(name)));
+            } catch (NumberFormatException e) {
+                OTALog.w(TAG, "Ignoring bad usage entry for " + name);
             }
+        }
+        return usage;
+    }
 
-            if (activeBundle != null) {
-                File bundleFile = new File(activeBundle, "index.android.bundle");
-                if (bundleFile.exists()) {
-                    String bundlePath = bundleFile.getAbsolutePath();
-                    Log.d(TAG, "Using bundle at: " + bundlePath);
-                    return bundlePath;
-                }
+    private static synchronized void writeUsage(File versionDirectory, Map<String, Long> usage) {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Long> entry : usage.entrySet()) {
+            properties.setProperty(entry.getKey(), Long.toString(entry.getValue()));
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try {
+            properties.store(content, null);
+        } catch (IOException e) {
+            OTALog.e(TAG, "Failed to encode bundle usage", e);
+            return;
+        }
+        replaceFile(versionDirectory, USAGE_FILE, content.toByteArray());
+    }
+
+    public static boolean isLaunchedBundle(File bundleFolder) {
+        return bundleFolder.equals(launchedBundle);
+    }
+
+    // The bundle this process runs, or the one the next launch picks: the pointer's target, or
+    // the most recent bundle without a pointer
+    public static boolean isInUse(File bundleFolder) {
+        if (isLaunchedBundle(bundleFolder)) {
+            return true;
+        }
+        File versionDirectory = bundleFolder.getParentFile();
+        String pointer = readPointer(versionDirectory);
+        if (pointer != null && new File(versionDirectory, pointer).isDirectory()) {
+            return pointer.equals(bundleFolder.getName());
+        }
+        List<File> newest = BundleFolders.newestFirst(versionDirectory);
+        return !newest.isEmpty() && newest.get(0).equals(bundleFolder);
+    }
+
+    // Recovery path: newest bundle by the hex timestamp in its folder name
+    private static File findNewestBundle(File versionDirectory) {
+        OTALog.d(TAG, () -> "Scanning bundle folders in " + versionDirectory.getAbsolutePath());
+
+        // Use the newest bundle that still matches its install fingerprint
+        return BundleFolders.findNewest(versionDirectory, bundleFolder -> {
+            if (isUsableBundle(bundleFolder)) {
+                return true;
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error getting bundle file", e);
+            OTALog.w(TAG, "Skipping damaged bundle: " + bundleFolder.getAbsolutePath());
+            return false;
+        });
+    }
+
+    private static boolean isUsableBundle(File bundleFolder) {
+        return new File(bundleFolder, BUNDLE_NAME).exists() && OTAIntegrity.isBundleIntact(bundleFolder);
+    }
+
+    private static String readPointer(File versionDirectory) {
+        File pointerFile = new File(versionDirectory, POINTER_FILE);
+        if (!pointerFile.exists()) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(pointerFile))) {
+            String name = reader.readLine();
+            return name != null && !name.trim().isEmpty() ? name.trim() : null;
+        } catch (IOException e) {
+            OTALog.e(TAG, "Failed to read active bundle pointer", e);
+            return null;
         }
+    }
 
-        Log.d(TAG, "Using default bundle");
-        return DEFAULT_BUNDLE;
+    private static void writePointer(File versionDirectory, String bundleName) {
+        replaceFile(versionDirectory, POINTER_FILE, (bundleName + "\n").getBytes(StandardCharsets.UTF_8));
     }
 
-    public static int cleanupOutdatedVersions(File otaDirectory, String currentVersion) {
+    // Written to a temporary file and renamed, so readers see either the old or the new content
+    private static void replaceFile(File versionDirectory, String fileName, byte[] content) {
+        File tempFile = new File(versionDirectory, fileName + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            out.write(content);
+            out.getFD().sync();
+        } catch (IOException e) {
+            OTALog.e(TAG, "Failed to write " + fileName, e);
+            return;
+        }
+        if (!tempFile.renameTo(new File(versionDirectory, fileName))) {
+            OTALog.e(TAG, "Failed to move " + fileName + " in place");
+            return;
+        }
+        OTAStagedInstall.syncRename(versionDirectory);
+    }
+
+    private static void deletePointer(File versionDirectory) {
+        File pointerFile = new File(versionDirectory, POINTER_FILE);
+        if (!pointerFile.delete()) {
+            OTALog.w(TAG, "Failed to delete: " + pointerFile.getAbsolutePath());
+        }
+    }
+
+    // Moves outdated version directories and old bundles into the trash and starts purging it
+    // in the background. Returns the number of directories moved.
+    public static int cleanupOutdatedVersions(Context context, File otaDirectory, String currentVersion) {
         File[] subdirectories = otaDirectory.listFiles(File::isDirectory);
         if (subdirectories == null) {
             return 0;
@@ -92,59 +290,81 @@ public class OTABundleManager {
             String version = subdir.getName();
             if (version.equals(currentVersion)) {
                 // Clean up old files within current version directory
-                deletedCount += cleanupOldBundles(subdir);
-            } else if (!version.equals("download")) {
+                deletedCount += cleanupOldBundles(context, otaDirectory, subdir);
+            } else if (!FolderUtils.isReservedDirectory(version)) {
                 // Remove entire directory for old versions
-                Log.d(TAG, "Removing outdated directory: " + subdir.getAbsolutePath());
-                if (deleteRecursive(subdir)) {
+                OTALog.d(TAG, () -> "Removing outdated directory: " + subdir.getAbsolutePath());
+                if (OTACleanupTask.moveToTrash(otaDirectory, subdir)) {
                     deletedCount++;
                 }
             }
         }
+
+        deletedCount += OTAStagedInstall.cleanupAbandoned(otaDirectory);
+        OTACleanupTask.purge(otaDirectory);
         return deletedCount;
     }
 
-    private static int cleanupOldBundles(File versionDirectory) {
+    // Keeps previous bundles for local rollback within the retention limits and trashes the
+    // least recently used ones beyond them
+    private static int cleanupOldBundles(Context context, File otaDirectory, File versionDirectory) {
         File[] bundleDirs = versionDirectory.listFiles(File::isDirectory);
         if (bundleDirs == null || bundleDirs.length <= 1) {
             return 0;
         }
 
-        // Find the most recent bundle
-        long mostRecentTimestamp = 0;
-        File mostRecentBundle = null;
-
-        for (File bundleDir : bundleDirs) {
-            String[] parts = bundleDir.getName().split("_");
-            if (parts.length > 0) {
-                String hexTimestamp = parts[parts.length - 1];
-                try {
-                    long timestamp = Long.parseLong(hexTimestamp, 16);
-                    if (timestamp > mostRecentTimestamp) {
-                        mostRecentTimestamp = timestamp;
-                        mostRecentBundle = bundleDir;
-                    }
-                } catch (NumberFormatException e) {
-                    Log.e(TAG, "Failed to parse timestamp from folder name: " + hexTimestamp, e);
-                }
+        // The bundle the pointer marks as active, or the most recent one without a pointer, and
+        // the one this process runs are never evicted
+        List<File> pinned = new ArrayList<>(2);
+        String pointer = readPointer(versionDirectory);
+        if (pointer != null && new File(versionDirectory, pointer).isDirectory()) {
+            pinned.add(new File(versionDirectory, pointer));
+        } else {
+            List<File> newest = BundleFolders.newestFirst(versionDirectory);
+            if (!newest.isEmpty()) {
+                pinned.add(newest.get(0));
             }
         }
+        File launched = launchedBundle;
+        if (launched != null) {
+            pinned.add(launched);
+        }
+
+        int maxBundles = OTAConfigStore.getRetainBundles(context);
+        long maxBytes = OTAConfigStore.getRetainBytes(context);
+        long protectedAfter = System.currentTimeMillis() - RECENTLY_COMMITTED_MS;
+        List<File> evicted = BundleRetention.evictions(bundleDirs, pinned, readUsage(versionDirectory),
+            maxBundles, maxBytes, protectedAfter, BundleRetention::folderBytes);
 
-        // Delete all bundles except the most recent one
         int deletedCount = 0;
-        for (File bundleDir : bundleDirs) {
-            if (!bundleDir.equals(mostRecentBundle)) {
-                Log.d(TAG, "Removing old bundle: " + bundleDir.getAbsolutePath());
-                if (deleteRecursive(bundleDir)) {
-                    deletedCount++;
-                }
+        for (File bundleDir : evicted) {
+            OTALog.d(TAG, () -> "Evicting least recently used bundle: " + bundleDir.getAbsolutePath());
+            if (OTACleanupTask.moveToTrash(otaDirectory, bundleDir)) {
+                deletedCount++;
             }
         }
 
+        pruneUsage(versionDirectory);
+
         return deletedCount;
     }
 
-    private static boolean deleteRecursive(File fileOrDirectory) {
+    // Drops usage entries of bundle folders that no longer exist
+    private static synchronized void pruneUsage(File versionDirectory) {
+        Map<String, Long> usage = readUsage(versionDirectory);
+        Set<String> present = new HashSet<>();
+        File[] bundleDirs = versionDirectory.listFiles(File::isDirectory);
+        if (bundleDirs != null) {
+            for (File bundleDir : bundleDirs) {
+                present.add(bundleDir.getName());
+            }
+        }
+        if (usage.keySet().retainAll(present)) {
+            writeUsage(versionDirectory, usage);
+        }
+    }
+
+    static boolean deleteRecursive(File fileOrDirectory) {
         if (fileOrDirectory.isDirectory()) {
             File[] files = fileOrDirectory.listFiles();
             if (files != null) {
@@ -155,7 +375,7 @@ public class OTABundleManager {
         }
         boolean deleted = fileOrDirectory.delete();
         if (!deleted) {
-            Log.e(TAG, "Failed to delete: " + fileOrDirectory.getAbsolutePath());
+            OTALog.e(TAG, "Failed to delete: " + fileOrDirectory.getAbsolutePath());
         }
         return deleted;
     }
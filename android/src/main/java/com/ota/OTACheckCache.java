@@ -0,0 +1,82 @@
+package com.ota;
+
+import com.ota.core.CachedCheck;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+// Persists the last update check answer for a check request URL. What gets cached and for
+// how long is decided by CachedCheck. The URL carries the endpoint and the bundle filename.
+// Only the entry for the current URL is kept, a new bundle name or endpoint makes older
+// answers irrelevant.
+public class OTACheckCache {
+    private static final String TAG = "OTACheckCache";
+    private static final String CACHE_FILE = "check_cache";
+    private static final String KEY_URL = "url";
+    private static final String KEY_BODY = "body";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_EXPIRES_AT = "expiresAt";
+
+    public static synchronized CachedCheck load(File otaDirectory, String requestUrl) {
+        File cacheFile = new File(otaDirectory, CACHE_FILE);
+        if (!cacheFile.exists()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (FileInputStream in = new FileInputStream(cacheFile)) {
+            properties.load(in);
+        } catch (IOException e) {
+            OTALog.e(TAG, "Failed to read check cache", e);
+            return null;
+        }
+
+        String body = properties.getProperty(KEY_BODY);
+        if (!requestUrl.equals(properties.getProperty(KEY_URL)) || body == null) {
+            return null;
+        }
+
+        long expiresAt;
+        try {
+            expiresAt = Long.parseLong(properties.getProperty(KEY_EXPIRES_AT, "0"));
+        } catch (NumberFormatException e) {
+            expiresAt = 0;
+        }
+        return new CachedCheck(body, properties.getProperty(KEY_ETAG), properties.getProperty(KEY_LAST_MODIFIED), expiresAt);
+    }
+
+    // Stores entry for requestUrl, a null entry (nothing to reuse or revalidate) clears the cache
+    public static synchronized void store(File otaDirectory, String requestUrl, CachedCheck entry) {
+        if (entry == null) {
+            clear(otaDirectory);
+            return;
+        }
+
+        Properties properties = new Properties();
+        properties.setProperty(KEY_URL, requestUrl);
+        properties.setProperty(KEY_BODY, entry.body);
+        properties.setProperty(KEY_EXPIRES_AT, Long.toString(entry.expiresAt));
+        if (entry.etag != null) {
+            properties.setProperty(KEY_ETAG, entry.etag);
+        }
+        if (entry.lastModified != null) {
+            properties.setProperty(KEY_LAST_MODIFIED, entry.lastModified);
+        }
+
+        try (FileOutputStream out = new FileOutputStream(new File(otaDirectory, CACHE_FILE))) {
+            properties.store(out, null);
+        } catch (IOException e) {
+            OTALog.e(TAG, "Failed to write check cache", e);
+        }
+    }
+
+    public static synchronized void clear(File otaDirectory) {
+        File cacheFile = new File(otaDirectory, CACHE_FILE);
+        if (cacheFile.exists() && !cacheFile.delete()) {
+            OTALog.w(TAG, "Failed to delete check cache");
+        }
+    }
+}
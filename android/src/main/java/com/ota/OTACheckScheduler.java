@@ -0,0 +1,125 @@
+package com.ota;
+
+import com.ota.core.Backoff;
+import com.ota.core.CheckSchedule;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Spreads update checks of a whole fleet over time. Network checks start after a random
+// delay, and failed checks push the next allowed check out with capped exponential backoff
+// or the server's Retry-After, as computed by CheckSchedule. The schedule is persisted, so
+// restarting the app does not skip the backoff.
+public class OTACheckScheduler {
+    private static final String TAG = "OTACheckScheduler";
+    private static final String SCHEDULE_FILE = "check_schedule";
+    private static final String KEY_FAILURES = "failures";
+    private static final String KEY_NEXT_ALLOWED_AT = "nextAllowedAt";
+
+    public static class Settings {
+        public long jitterMs = 1_000;
+        public long backoffBaseMs = 30_000;
+        public long backoffMaxMs = 60 * 60_000;
+    }
+
+    private static final ScheduledExecutorService EXECUTOR;
+
+    static {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> new Thread(runnable, "OTACheckScheduler"));
+        executor.setKeepAliveTime(30, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        EXECUTOR = executor;
+    }
+
+    private static final Random random = new Random();
+    private static volatile Settings settings = new Settings();
+
+    public static Settings getSettings() {
+        Settings current = settings;
+        Settings copy = new Settings();
+        copy.jitterMs = current.jitterMs;
+        copy.backoffBaseMs = current.backoffBaseMs;
+        copy.backoffMaxMs = current.backoffMaxMs;
+        return copy;
+    }
+
+    public static void configure(Settings newSettings) {
+        settings = newSettings;
+    }
+
+    // Backoff state persisted by earlier checks
+    public static synchronized CheckSchedule getSchedule(File otaDirectory) {
+        Properties schedule = load(otaDirectory);
+        return new CheckSchedule((int) parseLong(schedule.getProperty(KEY_FAILURES), 0),
+            parseLong(schedule.getProperty(KEY_NEXT_ALLOWED_AT), 0));
+    }
+
+    // Runs the network part of a check after a random delay of up to jitterMs
+    public static void runWithJitter(Runnable check) {
+        long delayMs = Backoff.jitterMs(settings.jitterMs, random);
+        if (delayMs == 0) {
+            check.run();
+            return;
+        }
+        OTALog.d(TAG, () -> "Delaying update check by " + delayMs + "ms");
+        EXECUTOR.schedule(check, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized void onSuccess(File otaDirectory) {
+        File scheduleFile = new File(otaDirectory, SCHEDULE_FILE);
+        if (scheduleFile.exists() && !scheduleFile.delete()) {
+            OTALog.w(TAG, "Failed to reset check schedule");
+        }
+    }
+
+    // Records a failed check. statusCode is -1 for network errors, retryAfter the response's
+    // Retry-After header.
+    public static synchronized void onFailure(File otaDirectory, int statusCode, String retryAfter) {
+        Settings current = settings;
+        CheckSchedule schedule = getSchedule(otaDirectory);
+        long delayMs = schedule.onFailure(statusCode, retryAfter, current.backoffBaseMs, current.backoffMaxMs, random,
+            System.currentTimeMillis());
+        int failures = schedule.failures;
+        OTALog.d(TAG, () -> "Update check failed " + failures + " times, next check in " + delayMs + "ms");
+
+        Properties properties = new Properties();
+        properties.setProperty(KEY_FAILURES, Integer.toString(schedule.failures));
+        properties.setProperty(KEY_NEXT_ALLOWED_AT, Long.toString(schedule.nextAllowedAt));
+        try (FileOutputStream out = new FileOutputStream(new File(otaDirectory, SCHEDULE_FILE))) {
+            properties.store(out, null);
+        } catch (IOException e) {
+            OTALog.e(TAG, "Failed to write check schedule", e);
+        }
+    }
+
+    private static Properties load(File otaDirectory) {
+        Properties schedule = new Properties();
+        File scheduleFile = new File(otaDirectory, SCHEDULE_FILE);
+        if (!scheduleFile.exists()) {
+            return schedule;
+        }
+        try (FileInputStream in = new FileInputStream(scheduleFile)) {
+            schedule.load(in);
+        } catch (IOException e) {
+            OTALog.e(TAG, "Failed to read check schedule", e);
+        }
+        return schedule;
+    }
+
+    private static long parseLong(String value, long fallback) {
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
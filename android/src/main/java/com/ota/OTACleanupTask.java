@@ -0,0 +1,144 @@
+package com.ota;
+
+import android.content.Context;
+import com.ota.core.TrashPurge;
+import java.io.File;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Storage cleanup that stays off the startup path. Outdated folders are renamed into
+// ota/trash, which is instant, and the trash is then deleted in short time slices on a
+// low priority thread so it never competes with app startup for disk bandwidth.
+public class OTACleanupTask {
+    private static final String TAG = "OTACleanupTask";
+    private static final long SLICE_MILLIS = 8;
+    private static final long PAUSE_MILLIS = 50;
+
+    private static final ScheduledExecutorService EXECUTOR;
+
+    static {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "OTACleanup");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.setKeepAliveTime(30, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        EXECUTOR = executor;
+    }
+
+    private static boolean cleanupScheduled = false;
+    private static boolean purgeRunning = false;
+    private static boolean trashedDuringPurge = false;
+    private static long trashCounter = 0;
+
+    // Runs the full cleanup in the background after delayMillis, at most once per process
+    public static synchronized void schedule(Context context, long delayMillis) {
+        if (cleanupScheduled) {
+            return;
+        }
+        cleanupScheduled = true;
+
+        Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        EXECUTOR.schedule(() -> {
+            try {
+                String appVersion = OTABundleManager.getAppVersion(appContext);
+                File otaDirectory = FolderUtils.getOtaDirectory(appContext);
+                if (otaDirectory != null) {
+                    int movedCount = OTABundleManager.cleanupOutdatedVersions(appContext, otaDirectory, appVersion);
+                    OTALog.d(TAG, () -> "Background cleanup moved " + movedCount + " directories to trash");
+                }
+            } catch (Exception e) {
+                OTALog.e(TAG, "Background cleanup failed", e);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Renames a directory into the trash. Returns false when the rename failed.
+    public static boolean moveToTrash(File otaDirectory, File directory) {
+        File trashDirectory = FolderUtils.getTrashDirectory(otaDirectory);
+        if (!trashDirectory.exists() && !trashDirectory.mkdirs()) {
+            OTALog.e(TAG, "Failed to create trash directory");
+            return false;
+        }
+
+        File target;
+        synchronized (OTACleanupTask.class) {
+            target = new File(trashDirectory, directory.getName() + "_" + System.nanoTime() + "_" + (trashCounter++));
+        }
+        if (!directory.renameTo(target)) {
+            OTALog.e(TAG, "Failed to move to trash: " + directory.getAbsolutePath());
+            return false;
+        }
+        synchronized (OTACleanupTask.class) {
+            trashedDuringPurge = true;
+        }
+        return true;
+    }
+
+    // Starts emptying the trash unless a purge is already running
+    public static synchronized void purge(File otaDirectory) {
+        if (purgeRunning) {
+            return;
+        }
+        purgeRunning = true;
+        trashedDuringPurge = false;
+
+        File[] trash = FolderUtils.getAllFilesInDirectory(FolderUtils.getTrashDirectory(otaDirectory));
+        EXECUTOR.execute(new PurgeSlice(otaDirectory, trash));
+    }
+
+    private static class PurgeSlice implements Runnable, TrashPurge.Listener {
+        private final File otaDirectory;
+        private final TrashPurge trashPurge;
+        private final long startedAt = System.nanoTime();
+
+        PurgeSlice(File otaDirectory, File[] trash) {
+            this.otaDirectory = otaDirectory;
+            this.trashPurge = new TrashPurge(trash, this);
+        }
+
+        @Override
+        public void run() {
+            OTALog.beginSection("OTA.cleanup");
+            try {
+                runSlice();
+            } finally {
+                OTALog.endSection();
+            }
+        }
+
+        // A file still linked from a blob or another bundle frees nothing yet
+        @Override
+        public long bytesFreedBy(File file) {
+            return OTABlobStore.linkCount(file) <= 1 ? file.length() : 0;
+        }
+
+        @Override
+        public void onDeleteFailed(File file) {
+            OTALog.e(TAG, "Failed to delete: " + file.getAbsolutePath());
+        }
+
+        private void runSlice() {
+            if (!trashPurge.runFor(TimeUnit.MILLISECONDS.toNanos(SLICE_MILLIS))) {
+                EXECUTOR.schedule(this, PAUSE_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            // Bundle folders only held links, blobs no longer linked from any bundle go now
+            long freedBytes = trashPurge.getFreedBytes() + OTABlobStore.collectGarbage(otaDirectory);
+            OTALog.d(TAG, () -> "Trash emptied: " + trashPurge.getDeletedCount() + " entries, " + freedBytes + " bytes freed");
+            OTAMetrics.recordSince(OTAMetrics.CLEANUP_MS, startedAt);
+            OTAMetrics.record(OTAMetrics.CLEANUP_BYTES_FREED, freedBytes);
+
+            synchronized (OTACleanupTask.class) {
+                purgeRunning = false;
+                // Pick up anything trashed while this purge was running
+                if (trashedDuringPurge) {
+                    purge(otaDirectory);
+                }
+            }
+        }
+    }
+}
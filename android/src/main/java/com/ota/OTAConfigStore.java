@@ -0,0 +1,86 @@
+package com.ota;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+// Configuration the update pipeline needs outside of a JS session. setConfig and setOptions
+// write it through to SharedPreferences, so a background worker started in a fresh process
+// checks the same endpoint the app last configured.
+public class OTAConfigStore {
+    private static final String PREFS_NAME = "com.ota.config";
+    private static final String KEY_UPDATE_CHECK_URL = "updateCheckUrl";
+    private static final String KEY_STREAMING_INSTALL = "streamingInstall";
+    private static final String KEY_RETAIN_BUNDLES = "retainBundles";
+    private static final String KEY_RETAIN_BYTES = "retainBytes";
+    // Active bundle plus two to roll back to, within 100 MB
+    private static final int DEFAULT_RETAIN_BUNDLES = 3;
+    private static final long DEFAULT_RETAIN_BYTES = 100L * 1024 * 1024;
+
+    private static volatile String updateCheckUrl;
+    private static volatile Boolean streamingInstall;
+    private static volatile Integer retainBundles;
+    private static volatile Long retainBytes;
+
+    public static void setUpdateCheckUrl(Context context, String url) {
+        updateCheckUrl = url;
+        prefs(context).edit().putString(KEY_UPDATE_CHECK_URL, url).apply();
+    }
+
+    public static String getUpdateCheckUrl(Context context) {
+        String url = updateCheckUrl;
+        if (url == null) {
+            url = prefs(context).getString(KEY_UPDATE_CHECK_URL, null);
+            updateCheckUrl = url;
+        }
+        return url;
+    }
+
+    public static void setStreamingInstall(Context context, boolean enabled) {
+        streamingInstall = enabled;
+        prefs(context).edit().putBoolean(KEY_STREAMING_INSTALL, enabled).apply();
+    }
+
+    public static boolean isStreamingInstall(Context context) {
+        Boolean enabled = streamingInstall;
+        if (enabled == null) {
+            enabled = prefs(context).getBoolean(KEY_STREAMING_INSTALL, false);
+            streamingInstall = enabled;
+        }
+        return enabled;
+    }
+
+    public static void setRetainBundles(Context context, int count) {
+        int bundles = Math.max(1, count);
+        retainBundles = bundles;
+        prefs(context).edit().putInt(KEY_RETAIN_BUNDLES, bundles).apply();
+    }
+
+    // Bundle folders cleanup keeps per app version, the active one included
+    public static int getRetainBundles(Context context) {
+        Integer bundles = retainBundles;
+        if (bundles == null) {
+            bundles = prefs(context).getInt(KEY_RETAIN_BUNDLES, DEFAULT_RETAIN_BUNDLES);
+            retainBundles = bundles;
+        }
+        return bundles;
+    }
+
+    public static void setRetainBytes(Context context, long bytes) {
+        retainBytes = bytes;
+        prefs(context).edit().putLong(KEY_RETAIN_BYTES, bytes).apply();
+    }
+
+    // Byte quota for those folders, 0 or less for none
+    public static long getRetainBytes(Context context) {
+        Long bytes = retainBytes;
+        if (bytes == null) {
+            bytes = prefs(context).getLong(KEY_RETAIN_BYTES, DEFAULT_RETAIN_BYTES);
+            retainBytes = bytes;
+        }
+        return bytes;
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
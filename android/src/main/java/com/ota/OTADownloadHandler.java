@@ -1,119 +1,766 @@
 package com.ota;
 
-import android.util.Log;
+import com.ota.core.BufferPool;
+import com.ota.core.HttpRanges;
+import com.ota.core.PackageFormat;
+import com.ota.core.PackageFormats;
+import com.ota.core.StreamCopy;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import okhttp3.*;
-import java.util.concurrent.TimeUnit;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ForwardingSink;
+import okio.Okio;
+import okio.Sink;
 
 public class OTADownloadHandler {
     private static final String TAG = "OTADownloadHandler";
-    private static String BASE_URL = null;
+    private static volatile String BASE_URL = null;
+    private static final int MAX_RESUME_ATTEMPTS = 3;
+    private static final long CHECKPOINT_BYTES = 1024 * 1024;
+
+    private static volatile int segmentCount = 1;
+    private static volatile long segmentThreshold = 8 * 1024 * 1024;
 
     private final File destinationFile;
     private final ProgressCallback progressCallback;
     private final CompletionCallback completionCallback;
     private final ErrorCallback errorCallback;
     private final OkHttpClient client;
+    private final OkHttpClient segmentClient;
+    // Failures arrive on whichever OkHttp thread failed, several at once with segments
+    private final AtomicInteger attempt = new AtomicInteger(0);
+    private String expectedSha256 = null;
+    private String declaredFormat = null;
+    private final AtomicLong networkBytes = new AtomicLong();
+    private volatile long startedAtNanos = 0;
+    private final AtomicBoolean traceOpen = new AtomicBoolean(false);
+    private volatile int traceCookie;
+    private volatile boolean cancelled = false;
+    private boolean keepCompleted = false;
+    private boolean recordMetrics = true;
 
     public interface ProgressCallback {
-        void onProgress(float progress);
+        // totalBytes is -1 when the server did not send a length
+        void onProgress(long bytesDone, long totalBytes);
     }
 
     public interface CompletionCallback {
-        void onComplete(boolean isZip);
+        // format is null when the package matched no known format
+        void onComplete(PackageFormat format);
     }
 
     public interface ErrorCallback {
         void onError(Exception error);
     }
 
-    public OTADownloadHandler(File destinationFile, 
+    public OTADownloadHandler(File destinationFile,
                             ProgressCallback progressCallback,
                             CompletionCallback completionCallback,
                             ErrorCallback errorCallback) {
         this.destinationFile = destinationFile;
         this.progressCallback = progressCallback;
         this.completionCallback = completionCallback;
-        this.errorCallback = errorCallback;
+        // Every failure path ends the trace section of the transfer
+        this.errorCallback = error -> {
+            endTraceSection();
+            errorCallback.onError(error);
+        };
+        this.client = OTAHttpClient.forDownloads();
+        this.segmentClient = OTAHttpClient.forSegmentedDownloads();
+    }
 
-        this.client = new OkHttpClient.Builder()
-            .connectTimeout(60, TimeUnit.SECONDS)
-            .readTimeout(60, TimeUnit.SECONDS)
-            .writeTimeout(60, TimeUnit.SECONDS)
-            .build();
+    // When set, the package is hashed while it downloads and rejected if it does not match
+    public void setExpectedSha256(String sha256) {
+        this.expectedSha256 = sha256 != null ? sha256.toLowerCase() : null;
+    }
+
+    // Marks the finished download as complete instead of forgetting it, so an install that is
+    // interrupted after the download reuses the file. The caller discards it once installed.
+    public void setKeepCompleted(boolean keepCompleted) {
+        this.keepCompleted = keepCompleted;
+    }
+
+    // Callers that download one update in several files record the metrics for all of them
+    public void setRecordMetrics(boolean recordMetrics) {
+        this.recordMetrics = recordMetrics;
+    }
+
+    // Bytes received over the network so far, resumed bytes are not counted
+    public long getNetworkBytes() {
+        return networkBytes.get();
+    }
+
+    // The format named by the check response, used when the package has no magic bytes
+    public void setDeclaredFormat(String format) {
+        this.declaredFormat = format;
     }
 
     public void download(String url) {
+        markStarted();
+        if (keepCompleted && OTADownloadState.isComplete(destinationFile)) {
+            OTALog.d(TAG, () -> "Reusing completed download " + destinationFile.getName());
+            complete();
+            return;
+        }
+        OTADownloadState state = OTADownloadState.load(destinationFile);
+        if (state != null && state.isSegmented() && destinationFile.length() == state.totalLength) {
+            OTALog.d(TAG, () -> "Resuming segmented download at " + state.bytesDone() + " of " + state.totalLength + " bytes");
+            downloadSegments(url, state, null, null);
+            return;
+        }
+
+        Request.Builder requestBuilder = new Request.Builder().url(url).tag(this);
+
+        // Resume a partial download if we still know which version of the file it belongs to
+        long existingBytes = destinationFile.exists() ? destinationFile.length() : 0;
+        if (state != null && !state.isSegmented() && existingBytes > 0) {
+            long resumeAt = existingBytes;
+            OTALog.d(TAG, () -> "Resuming download at byte " + resumeAt);
+            requestBuilder
+                .header("Range", "bytes=" + existingBytes + "-")
+                .header("If-Range", state.validator);
+        } else {
+            existingBytes = 0;
+            discardPartial();
+            if (segmentCount > 1) {
+                // An open-ended range tells us whether the server supports ranges without an extra round-trip
+                requestBuilder.header("Range", "bytes=0-");
+            }
+        }
+
+        final long resumeOffset = existingBytes;
+        // A probe that may become segment 0 must not open the HTTP/2 connection the other
+        // segments would then be multiplexed onto
+        OkHttpClient probeClient = resumeOffset == 0 && segmentCount > 1 ? segmentClient : client;
+
+        probeClient.newCall(requestBuilder.build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                OTALog.e(TAG, "Download failed", e);
+                retryOrFail(url, e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                if (response.code() == 416) {
+                    // Our partial file no longer lines up with the server copy, start over
+                    OTALog.w(TAG, "Requested range not satisfiable, restarting download");
+                    response.close();
+                    restart(url, new IOException("Unexpected response " + response));
+                    return;
+                }
+
+                if (response.code() == 206
+                        && HttpRanges.rangeStart(response.header("Content-Range")) != resumeOffset) {
+                    // Bytes from another offset would land in the wrong place of the file
+                    String contentRange = response.header("Content-Range");
+                    OTALog.w(TAG, "Range " + contentRange + " does not start at " + resumeOffset + ", restarting download");
+                    response.close();
+                    restart(url, new IOException("Unexpected Content-Range " + contentRange));
+                    return;
+                }
+
+                if (!response.isSuccessful()) {
+                    response.close();
+                    errorCallback.onError(new IOException("Unexpected response " + response));
+                    return;
+                }
+
+                if (response.body() == null) {
+                    response.close();
+                    errorCallback.onError(new IOException("Empty response body"));
+                    return;
+                }
+
+                if (resumeOffset == 0 && startSegmented(url, call, response)) {
+                    return;
+                }
+
+                writeSingleStream(url, response, resumeOffset);
+            }
+        });
+    }
+
+    // Extracts the package while it downloads instead of writing it to disk first. A package in
+    // a known format ends up in destinationFolder and completes with that format; anything else
+    // is written to destinationFile and completes with null.
+    public void downloadAndExtract(String url, File destinationFolder, File otaDirectory) {
+        // A zip stream cannot be picked up halfway through an entry, so always start from byte zero
+        discardPartial();
+        markStarted();
+
         Request request = new Request.Builder()
             .url(url)
+            .tag(this)
             .build();
 
         client.newCall(request).enqueue(new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "Download failed", e);
+                OTALog.e(TAG, "Download failed", e);
                 errorCallback.onError(e);
             }
 
             @Override
-            public void onResponse(Call call, Response response) throws IOException {
+            public void onResponse(Call call, Response response) {
                 if (!response.isSuccessful()) {
+                    response.close();
                     errorCallback.onError(new IOException("Unexpected response " + response));
                     return;
                 }
 
-                try (ResponseBody responseBody = response.body()) {
-                    if (responseBody == null) {
-                        errorCallback.onError(new IOException("Empty response body"));
+                // Extracting, sealing and hashing are pipeline work. They run on the OTA executor, the
+                // dispatcher thread only hands the open response over.
+                if (!OTAExecutor.execute(() -> installStreaming(response, destinationFolder, otaDirectory))) {
+                    response.close();
+                    errorCallback.onError(new IOException("Too many update operations queued"));
+                }
+            }
+        });
+    }
+
+    private void installStreaming(Response response, File destinationFolder, File otaDirectory) {
+        try (ResponseBody responseBody = response.body()) {
+            if (responseBody == null) {
+                errorCallback.onError(new IOException("Empty response body"));
+                return;
+            }
+
+            MessageDigest digest = OTAIntegrity.newDigest();
+            InputStream inputStream = new BufferedInputStream(
+                new ProgressInputStream(responseBody.byteStream(), responseBody.contentLength(), digest));
+
+            byte[] header = new byte[PackageFormats.SNIFF_BYTES];
+            inputStream.mark(header.length);
+            int headerLength = StreamCopy.readFully(inputStream, header);
+            inputStream.reset();
+
+            PackageFormat format = PackageFormats.detect(header, headerLength, declaredFormat);
+            if (format == null) {
+                OTALog.d(TAG, () -> "Unknown package format, writing it to " + destinationFile.getAbsolutePath());
+                try (FileOutputStream outputStream = new FileOutputStream(destinationFile)) {
+                    StreamCopy.copy(inputStream, outputStream, null, null);
+                }
+                if (!verify(digest)) {
+                    discardPartial();
+                    return;
+                }
+                complete(null);
+                return;
+            }
+
+            Map<String, String> hashes;
+            try {
+                hashes = format.extract(inputStream, destinationFolder);
+                // Drain the rest, like a zip central directory, so the connection can be reused and the hash is complete
+                StreamCopy.drain(inputStream);
+            } catch (IOException e) {
+                // Never leave a half extracted bundle folder behind
+                OTABundleManager.deleteRecursive(destinationFolder);
+                throw e;
+            }
+
+            if (!verify(digest)) {
+                OTABundleManager.deleteRecursive(destinationFolder);
+                return;
+            }
+            OTAIntegrity.sealBundle(otaDirectory, destinationFolder, hashes);
+            int entries = hashes.size();
+            OTALog.d(TAG, () -> "Extracted " + entries + " " + format.getName()
+                + " entries to " + destinationFolder.getAbsolutePath());
+            OTAMetrics.record(OTAMetrics.EXTRACT_ENTRIES, entries);
+            complete(format);
+        } catch (IOException e) {
+            OTALog.e(TAG, "Streaming install failed", e);
+            errorCallback.onError(e);
+        } catch (Throwable e) {
+            // Errors too, e.g. a class missing on this API level, must fail the operation
+            OTALog.e(TAG, "Streaming install failed", e);
+            OTABundleManager.deleteRecursive(destinationFolder);
+            errorCallback.onError(new IOException("Streaming install failed", e));
+        }
+    }
+
+    private class ProgressInputStream extends FilterInputStream {
+        private final long contentLength;
+        private final MessageDigest digest;
+        private long totalBytesRead = 0;
+
+        ProgressInputStream(InputStream in, long contentLength, MessageDigest digest) {
+            super(in);
+            this.contentLength = contentLength;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                digest.update((byte) value);
+                onRead(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int bytesRead = super.read(buffer, offset, length);
+            if (bytesRead > 0) {
+                digest.update(buffer, offset, bytesRead);
+                onRead(bytesRead);
+            }
+            return bytesRead;
+        }
+
+        private void onRead(int bytesRead) {
+            totalBytesRead += bytesRead;
+            networkBytes.addAndGet(bytesRead);
+            progressCallback.onProgress(totalBytesRead, contentLength > 0 ? contentLength : -1);
+        }
+    }
+
+    // Hashes and counts what passes through, reading the segments in place
+    private static class DigestSink extends ForwardingSink {
+        private final MessageDigest digest;
+        private final StreamCopy.Listener listener;
+        private final Buffer.UnsafeCursor cursor = new Buffer.UnsafeCursor();
+
+        DigestSink(Sink delegate, MessageDigest digest, StreamCopy.Listener listener) {
+            super(delegate);
+            this.digest = digest;
+            this.listener = listener;
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            source.readUnsafe(cursor);
+            try {
+                long remaining = byteCount;
+                for (int length = cursor.seek(0); remaining > 0 && length != -1; length = cursor.next()) {
+                    int count = (int) Math.min(length, remaining);
+                    digest.update(cursor.data, cursor.start, count);
+                    remaining -= count;
+                }
+            } finally {
+                cursor.close();
+            }
+            super.write(source, byteCount);
+            listener.onChunk((int) byteCount);
+        }
+    }
+
+    private void writeSingleStream(String url, Response response, long resumeOffset) {
+        try (ResponseBody responseBody = response.body()) {
+            // Only append when the server honoured our range, otherwise rewrite from the start. A
+            // 206 from any other offset never gets here.
+            boolean append = response.code() == 206 && resumeOffset > 0;
+            long offset = append ? resumeOffset : 0;
+
+            if (!append) {
+                String validator = OTADownloadState.validatorFrom(response.header("ETag"), response.header("Last-Modified"));
+                if (validator != null) {
+                    new OTADownloadState(validator, -1, new ArrayList<>()).save(destinationFile);
+                } else {
+                    OTALog.d(TAG, "Server did not send a validator, download will not be resumable");
+                    OTADownloadState.delete(destinationFile);
+                }
+            }
+
+            long contentLength = responseBody.contentLength();
+            long totalLength = contentLength > 0 ? offset + contentLength : -1;
+            BufferedSource source = responseBody.source();
+
+            // Hash inline while writing; a resumed download only re-reads the local prefix
+            MessageDigest digest = OTAIntegrity.newDigest();
+
+            try {
+                AtomicLong totalBytesRead = new AtomicLong(offset);
+                StreamCopy.Listener onChunk = length -> {
+                    networkBytes.addAndGet(length);
+                    progressCallback.onProgress(totalBytesRead.addAndGet(length), totalLength);
+                };
+
+                if (append && expectedSha256 != null) {
+                    OTAIntegrity.update(digest, destinationFile, offset);
+                }
+
+                // Okio hands the response segments to the file sink as they are, the body is
+                // never copied into a byte[] of ours
+                try (BufferedSink sink = Okio.buffer(new DigestSink(Okio.sink(destinationFile, append), digest, onChunk))) {
+                    sink.writeAll(source);
+                }
+            } catch (IOException e) {
+                // Keep the partial file and its validator so the next attempt can resume
+                OTALog.e(TAG, "Download interrupted", e);
+                retryOrFail(url, e);
+                return;
+            }
+
+            OTADownloadState.delete(destinationFile);
+            if (!verify(digest)) {
+                discardPartial();
+                return;
+            }
+            complete();
+        }
+    }
+
+    // One sample of the download metrics, for a transfer that started at startedAtNanos
+    static void recordDownload(long startedAtNanos, long bytes) {
+        long elapsedMs = Math.max(1, (System.nanoTime() - startedAtNanos) / 1_000_000);
+        OTAMetrics.record(OTAMetrics.DOWNLOAD_MS, elapsedMs);
+        OTAMetrics.record(OTAMetrics.DOWNLOAD_BYTES, bytes);
+        OTAMetrics.record(OTAMetrics.DOWNLOAD_BYTES_PER_SECOND, bytes * 1000 / elapsedMs);
+    }
+
+    private void markStarted() {
+        // Retries call download() again, the metrics cover the whole transfer
+        if (startedAtNanos == 0) {
+            startedAtNanos = System.nanoTime();
+        }
+        if (traceOpen.compareAndSet(false, true)) {
+            traceCookie = OTALog.beginAsyncSection("OTA.download");
+        }
+    }
+
+    private void endTraceSection() {
+        if (traceOpen.compareAndSet(true, false)) {
+            OTALog.endAsyncSection("OTA.download", traceCookie);
+        }
+    }
+
+    // Completes a download that was written to destinationFile, sniffing its format
+    private void complete() {
+        if (keepCompleted) {
+            try {
+                OTADownloadState.markComplete(destinationFile);
+            } catch (IOException e) {
+                OTALog.w(TAG, "Failed to mark download complete: " + e.getMessage());
+            }
+        }
+        complete(PackageFormats.detect(destinationFile, declaredFormat));
+    }
+
+    private void complete(PackageFormat format) {
+        if (recordMetrics) {
+            recordDownload(startedAtNanos, networkBytes.get());
+        }
+        endTraceSection();
+        completionCallback.onComplete(format);
+    }
+
+    private boolean verify(MessageDigest digest) {
+        if (expectedSha256 == null) {
+            return true;
+        }
+        String actual = OTAIntegrity.toHex(digest.digest());
+        if (actual.equals(expectedSha256)) {
+            OTALog.d(TAG, "Package hash verified");
+            return true;
+        }
+        OTALog.e(TAG, "Package hash mismatch, expected " + expectedSha256 + " but got " + actual);
+        errorCallback.onError(new IOException("Package hash mismatch"));
+        return false;
+    }
+
+    // Switches to parallel range requests when the first response shows the server supports
+    // them and the package is large enough. The first response then serves segment 0.
+    private boolean startSegmented(String url, Call probeCall, Response response) {
+        String contentRange = response.header("Content-Range");
+        String validator = OTADownloadState.validatorFrom(response.header("ETag"), response.header("Last-Modified"));
+        if (!HttpRanges.canSegment(segmentCount, segmentThreshold, response.code(), contentRange, validator)) {
+            return false;
+        }
+
+        long totalLength = HttpRanges.rangeTotal(contentRange);
+        try (RandomAccessFile file = new RandomAccessFile(destinationFile, "rw")) {
+            file.setLength(totalLength);
+        } catch (IOException e) {
+            OTALog.w(TAG, "Failed to preallocate download file, using a single stream", e);
+            return false;
+        }
+
+        List<OTADownloadState.Segment> segments = new ArrayList<>(segmentCount);
+        for (long[] range : HttpRanges.segments(totalLength, segmentCount)) {
+            segments.add(new OTADownloadState.Segment(range[0], range[1], 0));
+        }
+
+        OTADownloadState state = new OTADownloadState(validator, totalLength, segments);
+        state.save(destinationFile);
+
+        OTALog.d(TAG, () -> "Downloading " + totalLength + " bytes in " + segments.size() + " segments");
+        downloadSegments(url, state, probeCall, response);
+        return true;
+    }
+
+    // firstCall is the probe whose response serves segment 0, it is cancelled with the others
+    private void downloadSegments(String url, OTADownloadState state, Call firstCall, Response firstResponse) {
+        List<OTADownloadState.Segment> pending = new ArrayList<>();
+        for (OTADownloadState.Segment segment : state.segments) {
+            if (!segment.isComplete()) {
+                pending.add(segment);
+            }
+        }
+
+        AtomicLong bytesDone = new AtomicLong(state.bytesDone());
+        AtomicInteger remaining = new AtomicInteger(pending.size());
+        AtomicBoolean failed = new AtomicBoolean(false);
+        List<Call> calls = new ArrayList<>();
+        if (firstCall != null) {
+            calls.add(firstCall);
+        }
+
+        SegmentListener listener = new SegmentListener() {
+            @Override
+            public void onBytes(long count) {
+                long done = bytesDone.addAndGet(count);
+                networkBytes.addAndGet(count);
+                progressCallback.onProgress(done, state.totalLength);
+            }
+
+            @Override
+            public void onSegmentComplete() {
+                if (remaining.decrementAndGet() == 0 && !failed.get()) {
+                    OTADownloadState.delete(destinationFile);
+                    if (expectedSha256 == null) {
+                        complete();
                         return;
                     }
-
-                    long contentLength = responseBody.contentLength();
-                    InputStream inputStream = responseBody.byteStream();
-                    FileOutputStream outputStream = new FileOutputStream(destinationFile);
-
-                    byte[] buffer = new byte[4096];
-                    long totalBytesRead = 0;
-                    int bytesRead;
-                    boolean isZip = false;
-                    boolean headerChecked = false;
-
-                    while ((bytesRead = inputStream.read(buffer)) != -1) {
-                        if (!headerChecked && totalBytesRead == 0) {
-                            isZip = buffer[0] == 0x50 && buffer[1] == 0x4B && 
-                                   buffer[2] == 0x03 && buffer[3] == 0x04;
-                            headerChecked = true;
+                    // Segments arrive out of order, so this is the one path that hashes after the fact.
+                    // Reading the whole file back is disk work, it runs on the OTA executor.
+                    boolean queued = OTAExecutor.execute(() -> {
+                        MessageDigest digest = OTAIntegrity.newDigest();
+                        try {
+                            OTAIntegrity.update(digest, destinationFile, destinationFile.length());
+                        } catch (IOException e) {
+                            errorCallback.onError(e);
+                            return;
+                        }
+                        if (!verify(digest)) {
+                            discardPartial();
+                            return;
                         }
+                        complete();
+                    });
+                    if (!queued) {
+                        errorCallback.onError(new IOException("OTA executor is saturated"));
+                    }
+                }
+            }
 
-                        outputStream.write(buffer, 0, bytesRead);
-                        totalBytesRead += bytesRead;
+            @Override
+            public boolean hasFailed() {
+                return failed.get();
+            }
 
-                        if (contentLength > 0) {
-                            float progress = (totalBytesRead * 100f) / contentLength;
-                            progressCallback.onProgress(progress);
+            @Override
+            public void onSegmentFailed(IOException error, boolean invalidated) {
+                if (failed.compareAndSet(false, true)) {
+                    synchronized (calls) {
+                        for (Call call : calls) {
+                            call.cancel();
                         }
                     }
+                    if (invalidated) {
+                        OTADownloadState.delete(destinationFile);
+                    } else {
+                        state.save(destinationFile);
+                    }
+                    retryOrFail(url, error);
+                }
+            }
+        };
+
+        if (pending.isEmpty()) {
+            remaining.incrementAndGet();
+            listener.onSegmentComplete();
+            return;
+        }
+
+        OTADownloadState.Segment firstSegment = null;
+        for (OTADownloadState.Segment segment : pending) {
+            if (firstResponse != null && segment.start == 0) {
+                firstSegment = segment;
+                continue;
+            }
 
-                    outputStream.close();
-                    completionCallback.onComplete(isZip);
+            Request request = new Request.Builder()
+                .url(url)
+                .header("Range", "bytes=" + (segment.start + segment.done) + "-" + segment.end)
+                .header("If-Range", state.validator)
+                .tag(this)
+                .build();
+            Call call = segmentClient.newCall(request);
+            synchronized (calls) {
+                calls.add(call);
+            }
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    listener.onSegmentFailed(e, false);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    if (response.code() != 206
+                            || HttpRanges.rangeStart(response.header("Content-Range")) != segment.start + segment.done) {
+                        // The file changed on the server, partial segments can no longer be trusted
+                        response.close();
+                        listener.onSegmentFailed(new IOException("Unexpected response " + response), true);
+                        return;
+                    }
+                    writeSegment(response, state, segment, listener);
+                }
+            });
+        }
+
+        if (firstSegment != null) {
+            // The probing response already streams from byte 0, reuse it for the first segment
+            writeSegment(firstResponse, state, firstSegment, listener);
+        } else if (firstResponse != null) {
+            firstResponse.close();
+        }
+    }
+
+    private void writeSegment(Response response, OTADownloadState state, OTADownloadState.Segment segment,
+                              SegmentListener listener) {
+        try (ResponseBody responseBody = response.body();
+             RandomAccessFile file = new RandomAccessFile(destinationFile, "rw")) {
+            BufferedSource source = responseBody.source();
+            file.seek(segment.start + segment.done);
+            OutputStream out = Channels.newOutputStream(file.getChannel());
+
+            // Read segments into an Okio buffer and write them to the file from there
+            Buffer buffer = new Buffer();
+            long sinceCheckpoint = 0;
+            while (!segment.isComplete()) {
+                // Once a segment failed the retry owns the state, checkpoints from here on
+                // would roll its offsets back
+                if (listener.hasFailed()) {
+                    throw new IOException("Segmented download failed elsewhere");
+                }
+                long toRead = Math.min(BufferPool.getBufferSize(), segment.length() - segment.done);
+                long bytesRead = source.read(buffer, toRead);
+                if (bytesRead == -1) {
+                    throw new IOException("Segment ended early at byte " + (segment.start + segment.done));
+                }
+
+                buffer.writeTo(out);
+                segment.done += bytesRead;
+                listener.onBytes(bytesRead);
+
+                sinceCheckpoint += bytesRead;
+                if (sinceCheckpoint >= CHECKPOINT_BYTES && !listener.hasFailed()) {
+                    state.save(destinationFile);
+                    sinceCheckpoint = 0;
                 }
             }
-        });
+        } catch (IOException e) {
+            OTALog.e(TAG, "Segment download failed", e);
+            listener.onSegmentFailed(e, false);
+            return;
+        }
+        listener.onSegmentComplete();
+    }
+
+    private interface SegmentListener {
+        void onBytes(long count);
+
+        void onSegmentComplete();
+
+        boolean hasFailed();
+
+        void onSegmentFailed(IOException error, boolean invalidated);
+    }
+
+    // Stops every transfer of this download. The error callback still fires for calls that
+    // were in flight, and no retry is started.
+    public void cancel() {
+        cancelled = true;
+        Dispatcher dispatcher = client.dispatcher();
+        for (Call call : dispatcher.queuedCalls()) {
+            if (call.request().tag() == this) {
+                call.cancel();
+            }
+        }
+        for (Call call : dispatcher.runningCalls()) {
+            if (call.request().tag() == this) {
+                call.cancel();
+            }
+        }
+    }
+
+    private void retryOrFail(String url, IOException error) {
+        if (!cancelled && OTADownloadState.load(destinationFile) != null) {
+            // Claimed atomically, two failures at once never both start a retry past the limit
+            int previous = attempt.getAndIncrement();
+            if (previous < MAX_RESUME_ATTEMPTS) {
+                OTALog.d(TAG, () -> "Retrying download (attempt " + (previous + 1) + " of " + MAX_RESUME_ATTEMPTS + ")");
+                download(url);
+                return;
+            }
+        }
+        errorCallback.onError(error);
+    }
+
+    // Drops the partial file and downloads from byte zero, as one of the resume attempts
+    private void restart(String url, IOException error) {
+        discardPartial();
+        int previous = attempt.getAndIncrement();
+        if (!cancelled && previous < MAX_RESUME_ATTEMPTS) {
+            OTALog.d(TAG, () -> "Restarting download (attempt " + (previous + 1) + " of " + MAX_RESUME_ATTEMPTS + ")");
+            download(url);
+            return;
+        }
+        errorCallback.onError(error);
+    }
+
+    private void discardPartial() {
+        discard(destinationFile);
+    }
+
+    // Deletes a download with its resume state and completion marker
+    public static void discard(File destinationFile) {
+        if (destinationFile.exists() && !destinationFile.delete()) {
+            OTALog.w(TAG, "Failed to delete download: " + destinationFile.getAbsolutePath());
+        }
+        OTADownloadState.delete(destinationFile);
+        OTADownloadState.deleteComplete(destinationFile);
+    }
+
+    public static void setSegmentedDownload(int segments, long thresholdBytes) {
+        OTALog.d(TAG, () -> "Setting segmented download to " + segments + " segments above " + thresholdBytes + " bytes");
+        segmentCount = Math.max(1, segments);
+        segmentThreshold = Math.max(0, thresholdBytes);
     }
 
     public static void setBaseUrl(String baseUrl) {
-        Log.d(TAG, "Setting base URL to: " + baseUrl);
+        OTALog.d(TAG, () -> "Setting base URL to: " + baseUrl);
         BASE_URL = baseUrl;
     }
 
     public static String getBaseUrl() {
         if (BASE_URL == null) {
-            Log.e(TAG, "Base URL not set. Please call setConfig first.");
+            OTALog.e(TAG, "Base URL not set. Please call setConfig first.");
             throw new IllegalStateException("Base URL not set. Please call setConfig first.");
         }
         return BASE_URL;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,158 @@
+package com.ota;
+
+import com.ota.core.HttpRanges;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+// Persisted state of an unfinished download, stored next to the partial file as
+// <name>.zip.resume. Holds the server validator and, for segmented downloads,
+// how far each byte range got. A finished download that is not installed yet is
+// marked by an empty <name>.zip.complete instead.
+class OTADownloadState {
+    private static final String TAG = "OTADownloadState";
+    private static final String SUFFIX = ".resume";
+    private static final String COMPLETE_SUFFIX = ".complete";
+    private static final String KEY_VALIDATOR = "validator";
+    private static final String KEY_LENGTH = "length";
+    private static final String KEY_SEGMENTS = "segments";
+
+    static class Segment {
+        final long start;
+        final long end;
+        volatile long done;
+
+        Segment(long start, long end, long done) {
+            this.start = start;
+            this.end = end;
+            this.done = done;
+        }
+
+        long length() {
+            return end - start + 1;
+        }
+
+        boolean isComplete() {
+            return done >= length();
+        }
+    }
+
+    final String validator;
+    final long totalLength;
+    final List<Segment> segments;
+
+    OTADownloadState(String validator, long totalLength, List<Segment> segments) {
+        this.validator = validator;
+        this.totalLength = totalLength;
+        this.segments = segments;
+    }
+
+    boolean isSegmented() {
+        return !segments.isEmpty();
+    }
+
+    long bytesDone() {
+        long done = 0;
+        for (Segment segment : segments) {
+            done += segment.done;
+        }
+        return done;
+    }
+
+    static File fileFor(File destinationFile) {
+        return new File(destinationFile.getAbsolutePath() + SUFFIX);
+    }
+
+    static OTADownloadState load(File destinationFile) {
+        File stateFile = fileFor(destinationFile);
+        if (!stateFile.exists()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (FileInputStream in = new FileInputStream(stateFile)) {
+            properties.load(in);
+        } catch (IOException e) {
+            OTALog.e(TAG, "Failed to read resume state", e);
+            return null;
+        }
+
+        String validator = properties.getProperty(KEY_VALIDATOR);
+        if (validator == null) {
+            return null;
+        }
+
+        try {
+            long totalLength = Long.parseLong(properties.getProperty(KEY_LENGTH, "-1"));
+            int count = Integer.parseInt(properties.getProperty(KEY_SEGMENTS, "0"));
+            List<Segment> segments = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                // segment.<i>=<start>-<end>:<done>
+                String value = properties.getProperty("segment." + i);
+                int dash = value.indexOf('-');
+                int colon = value.indexOf(':');
+                segments.add(new Segment(
+                    Long.parseLong(value.substring(0, dash)),
+                    Long.parseLong(value.substring(dash + 1, colon)),
+                    Long.parseLong(value.substring(colon + 1))
+                ));
+            }
+            return new OTADownloadState(validator, totalLength, segments);
+        } catch (RuntimeException e) {
+            OTALog.e(TAG, "Corrupt resume state, ignoring", e);
+            return null;
+        }
+    }
+
+    synchronized void save(File destinationFile) {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_VALIDATOR, validator);
+        properties.setProperty(KEY_LENGTH, Long.toString(totalLength));
+        properties.setProperty(KEY_SEGMENTS, Integer.toString(segments.size()));
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            properties.setProperty("segment." + i, segment.start + "-" + segment.end + ":" + segment.done);
+        }
+
+        try (FileOutputStream out = new FileOutputStream(fileFor(destinationFile))) {
+            properties.store(out, null);
+        } catch (IOException e) {
+            OTALog.e(TAG, "Failed to write resume state", e);
+        }
+    }
+
+    static void delete(File destinationFile) {
+        File stateFile = fileFor(destinationFile);
+        if (stateFile.exists() && !stateFile.delete()) {
+            OTALog.w(TAG, "Failed to delete resume state: " + stateFile.getAbsolutePath());
+        }
+    }
+
+    // The file is synced before the marker exists, so a marker never vouches for lost data
+    static void markComplete(File destinationFile) throws IOException {
+        OTAStagedInstall.syncFile(destinationFile);
+        File marker = new File(destinationFile.getAbsolutePath() + COMPLETE_SUFFIX);
+        if (!marker.exists() && !marker.createNewFile()) {
+            throw new IOException("Failed to create " + marker.getAbsolutePath());
+        }
+    }
+
+    static boolean isComplete(File destinationFile) {
+        return destinationFile.exists() && new File(destinationFile.getAbsolutePath() + COMPLETE_SUFFIX).exists();
+    }
+
+    static void deleteComplete(File destinationFile) {
+        File marker = new File(destinationFile.getAbsolutePath() + COMPLETE_SUFFIX);
+        if (marker.exists() && !marker.delete()) {
+            OTALog.w(TAG, "Failed to delete: " + marker.getAbsolutePath());
+        }
+    }
+
+    static String validatorFrom(String etag, String lastModified) {
+        return HttpRanges.validator(etag, lastModified);
+    }
+}
@@ -0,0 +1,66 @@
+package com.ota;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The one place pipeline work runs: reading the check cache, parsing responses, extracting,
+// patching and activating bundles. OkHttp threads only move bytes and the JS and UI threads
+// only hand work over. The queue is bounded, a full queue rejects the operation with BUSY
+// instead of piling up work behind a stuck stage.
+public class OTAExecutor {
+    private static final String TAG = "OTAExecutor";
+    private static final int THREADS = 2;
+    private static final int QUEUE_CAPACITY = 16;
+
+    private static final ThreadPoolExecutor EXECUTOR;
+
+    static {
+        AtomicInteger threadCount = new AtomicInteger(0);
+        EXECUTOR = new ThreadPoolExecutor(
+            THREADS, THREADS, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+            runnable -> {
+                Thread thread = new Thread(runnable, "OTA-" + threadCount.incrementAndGet());
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        );
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    // Runs a stage of operation. Nothing runs once the operation is finished or cancelled, and
+    // anything the stage throws, Errors such as a class missing on older API levels included,
+    // rejects the operation instead of killing the thread.
+    public static void run(OTAOperation operation, Runnable stage) {
+        try {
+            EXECUTOR.execute(() -> {
+                if (operation.isFinished()) {
+                    return;
+                }
+                try {
+                    stage.run();
+                } catch (Throwable e) {
+                    OTALog.e(TAG, "Update stage failed", e);
+                    operation.reject("INTERNAL_ERROR", "Update stage failed", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            OTALog.w(TAG, "OTA executor is saturated, rejecting operation");
+            operation.reject("BUSY", "Too many update operations queued", e);
+        }
+    }
+
+    // For work that does not belong to an operation. Returns false when the queue is full.
+    public static boolean execute(Runnable task) {
+        try {
+            EXECUTOR.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            OTALog.w(TAG, "OTA executor is saturated, dropping task");
+            return false;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.ota;
+
+import com.ota.core.BufferPool;
+import com.ota.core.PackageFormat;
+import com.ota.core.ZipExtraction;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Extraction as the app runs it: the shared pool, logging, trace sections and metrics around
+// the plain Java core in com.ota.core.ZipExtraction and com.ota.core.PackageFormats.
+public class OTAExtractor {
+    private static final String TAG = "OTAExtractor";
+    private static final int POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    public interface ProgressCallback extends ZipExtraction.ProgressCallback {
+    }
+
+    // Shared bounded pool, threads time out when no extraction is running
+    private static final ThreadPoolExecutor EXTRACT_POOL;
+
+    static {
+        AtomicInteger threadCount = new AtomicInteger(0);
+        EXTRACT_POOL = new ThreadPoolExecutor(
+            POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "OTAExtract-" + threadCount.incrementAndGet());
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        );
+        EXTRACT_POOL.allowCoreThreadTimeOut(true);
+    }
+
+    // Extracts a zip file on disk in parallel on the extraction pool. Returns the SHA-256 of
+    // every extracted file, keyed by its path in the zip.
+    public static Map<String, String> extractFile(File zipFile, File destinationDir) throws IOException {
+        return extractFile(zipFile, destinationDir, null);
+    }
+
+    public static Map<String, String> extractFile(File zipFile, File destinationDir,
+                                                  ProgressCallback progressCallback) throws IOException {
+        long startedAt = System.nanoTime();
+        OTALog.beginSection("OTA.extract");
+        try {
+            Map<String, String> hashes = ZipExtraction.extractFile(zipFile, destinationDir, EXTRACT_POOL, progressCallback);
+            OTALog.d(TAG, () -> "Extracted " + hashes.size() + " files to " + destinationDir.getAbsolutePath()
+                + " on " + POOL_SIZE + " threads");
+            OTAMetrics.recordSince(OTAMetrics.EXTRACT_MS, startedAt);
+            OTAMetrics.record(OTAMetrics.EXTRACT_ENTRIES, hashes.size());
+            return hashes;
+        } finally {
+            OTALog.endSection();
+        }
+    }
+
+    // Extracts a package file in any other format. Streams cannot be split across threads, so
+    // this runs on the caller's thread. Progress counts compressed bytes read from the file.
+    public static Map<String, String> extractPackage(File packageFile, PackageFormat format, File destinationDir,
+                                                     ProgressCallback progressCallback) throws IOException {
+        long startedAt = System.nanoTime();
+        long totalBytes = packageFile.length();
+        OTALog.beginSection("OTA.extract");
+        try (InputStream in = new BufferedInputStream(
+                new CountingInputStream(new FileInputStream(packageFile), totalBytes, progressCallback),
+                BufferPool.getBufferSize())) {
+            Map<String, String> hashes = format.extract(in, destinationDir);
+            OTALog.d(TAG, () -> "Extracted " + hashes.size() + " " + format.getName() + " entries to "
+                + destinationDir.getAbsolutePath());
+            OTAMetrics.recordSince(OTAMetrics.EXTRACT_MS, startedAt);
+            OTAMetrics.record(OTAMetrics.EXTRACT_ENTRIES, hashes.size());
+            return hashes;
+        } finally {
+            OTALog.endSection();
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final long totalBytes;
+        private final ProgressCallback progressCallback;
+        private long bytesRead = 0;
+
+        CountingInputStream(InputStream in, long totalBytes, ProgressCallback progressCallback) {
+            super(in);
+            this.totalBytes = totalBytes;
+            this.progressCallback = progressCallback;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                onRead(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                onRead(count);
+            }
+            return count;
+        }
+
+        private void onRead(int count) {
+            bytesRead += count;
+            if (progressCallback != null) {
+                progressCallback.onProgress(bytesRead, totalBytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.ota;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Dns;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+// One HTTP client for the whole module. Update checks and downloads use clients derived with
+// newBuilder(), which share the connection pool, dispatcher and DNS cache, so a download can
+// reuse the warm (HTTP/2) connection the update check just opened. Segmented downloads are
+// the exception: HTTP/2 would multiplex every segment over one connection, so they get an
+// HTTP/1.1 client that opens one connection per segment.
+public class OTAHttpClient {
+    private static final String TAG = "OTAHttpClient";
+
+    public static class Settings {
+        public long connectTimeoutMs = 10_000;
+        public long checkTimeoutMs = 10_000;
+        public long downloadTimeoutMs = 60_000;
+        public int maxIdleConnections = 5;
+        public long keepAliveMs = 5 * 60_000;
+        public int maxRequestsPerHost = 8;
+        public long dnsCacheTtlMs = 60_000;
+    }
+
+    private static Settings settings = new Settings();
+    private static OkHttpClient checkClient;
+    private static OkHttpClient downloadClient;
+    private static OkHttpClient segmentClient;
+
+    public static synchronized OkHttpClient forChecks() {
+        if (checkClient == null) {
+            build();
+        }
+        return checkClient;
+    }
+
+    public static synchronized OkHttpClient forDownloads() {
+        if (downloadClient == null) {
+            build();
+        }
+        return downloadClient;
+    }
+
+    public static synchronized OkHttpClient forSegmentedDownloads() {
+        if (segmentClient == null) {
+            build();
+        }
+        return segmentClient;
+    }
+
+    public static synchronized Settings getSettings() {
+        Settings copy = new Settings();
+        copy.connectTimeoutMs = settings.connectTimeoutMs;
+        copy.checkTimeoutMs = settings.checkTimeoutMs;
+        copy.downloadTimeoutMs = settings.downloadTimeoutMs;
+        copy.maxIdleConnections = settings.maxIdleConnections;
+        copy.keepAliveMs = settings.keepAliveMs;
+        copy.maxRequestsPerHost = settings.maxRequestsPerHost;
+        copy.dnsCacheTtlMs = settings.dnsCacheTtlMs;
+        return copy;
+    }
+
+    // Calls already in flight keep their client, new calls pick up the new settings
+    public static synchronized void configure(Settings newSettings) {
+        OTALog.d(TAG, "Configuring HTTP client");
+        settings = newSettings;
+        if (checkClient != null) {
+            checkClient.connectionPool().evictAll();
+        }
+        checkClient = null;
+        downloadClient = null;
+        segmentClient = null;
+    }
+
+    private static void build() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(settings.maxRequestsPerHost);
+
+        OkHttpClient base = new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(settings.maxIdleConnections, settings.keepAliveMs, TimeUnit.MILLISECONDS))
+            .dispatcher(dispatcher)
+            .dns(new CachingDns(settings.dnsCacheTtlMs))
+            .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .connectTimeout(settings.connectTimeoutMs, TimeUnit.MILLISECONDS)
+            .retryOnConnectionFailure(true)
+            .build();
+
+        checkClient = base.newBuilder()
+            .readTimeout(settings.checkTimeoutMs, TimeUnit.MILLISECONDS)
+            .writeTimeout(settings.checkTimeoutMs, TimeUnit.MILLISECONDS)
+            .build();
+
+        downloadClient = base.newBuilder()
+            .readTimeout(settings.downloadTimeoutMs, TimeUnit.MILLISECONDS)
+            .writeTimeout(settings.downloadTimeoutMs, TimeUnit.MILLISECONDS)
+            .build();
+
+        segmentClient = downloadClient.newBuilder()
+            .protocols(Collections.singletonList(Protocol.HTTP_1_1))
+            .build();
+    }
+
+    // Keeps resolved addresses for a short time so checks and downloads skip repeated lookups
+    private static class CachingDns implements Dns {
+        private final long ttlMs;
+        private final Map<String, CachedLookup> cache = new ConcurrentHashMap<>();
+
+        CachingDns(long ttlMs) {
+            this.ttlMs = ttlMs;
+        }
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            long now = System.currentTimeMillis();
+            CachedLookup cached = cache.get(hostname);
+            if (cached != null && cached.expiresAt > now) {
+                return cached.addresses;
+            }
+
+            List<InetAddress> addresses = Dns.SYSTEM.lookup(hostname);
+            if (ttlMs > 0) {
+                cache.put(hostname, new CachedLookup(addresses, now + ttlMs));
+            }
+            return addresses;
+        }
+    }
+
+    private static class CachedLookup {
+        final List<InetAddress> addresses;
+        final long expiresAt;
+
+        CachedLookup(List<InetAddress> addresses, long expiresAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.ota;
+
+import com.ota.core.Digests;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Properties;
+
+// SHA-256 helpers and the bundle fingerprint. The fingerprint records the verified hash,
+// size and mtime of index.android.bundle, so startup can confirm the bundle with a single
+// stat call instead of hashing it again.
+public class OTAIntegrity {
+    private static final String TAG = "OTAIntegrity";
+    public static final String FINGERPRINT_FILE = "ota.fingerprint";
+    public static final String BUNDLE_NAME = "index.android.bundle";
+    private static final String KEY_SHA256 = "sha256";
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_MTIME = "mtime";
+
+    public static MessageDigest newDigest() {
+        return Digests.newSha256();
+    }
+
+    public static String sha256(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, file, file.length());
+        return toHex(digest.digest());
+    }
+
+    // Feeds the first length bytes of file into digest
+    public static void update(MessageDigest digest, File file, long length) throws IOException {
+        Digests.update(digest, file, length);
+    }
+
+    public static String toHex(byte[] bytes) {
+        return Digests.toHex(bytes);
+    }
+
+    // Finishes an installed bundle folder: deduplicates it into the blob store and records the
+    // fingerprint. Hashes computed while extracting are reused, keyed by path relative to the folder.
+    public static void sealBundle(File otaDirectory, File bundleFolder, Map<String, String> hashes) {
+        OTALog.beginSection("OTA.seal");
+        try {
+            OTABlobStore.ingest(otaDirectory, bundleFolder, hashes);
+
+            File bundleFile = new File(bundleFolder, BUNDLE_NAME);
+            if (!bundleFile.exists()) {
+                OTALog.w(TAG, "No " + BUNDLE_NAME + " in " + bundleFolder.getAbsolutePath());
+                return;
+            }
+
+            String sha256 = hashes != null ? hashes.get(BUNDLE_NAME) : null;
+            if (sha256 == null) {
+                sha256 = sha256(bundleFile);
+            }
+            writeFingerprint(bundleFolder, bundleFile, sha256);
+        } catch (IOException e) {
+            OTALog.e(TAG, "Failed to write bundle fingerprint", e);
+        } finally {
+            OTALog.endSection();
+        }
+    }
+
+    // Cheap check for the startup path. Bundles without a fingerprint predate it and are trusted.
+    public static boolean isBundleIntact(File bundleFolder) {
+        File fingerprintFile = new File(bundleFolder, FINGERPRINT_FILE);
+        if (!fingerprintFile.exists()) {
+            return true;
+        }
+
+        Properties fingerprint = new Properties();
+        try (FileInputStream in = new FileInputStream(fingerprintFile)) {
+            fingerprint.load(in);
+        } catch (IOException e) {
+            OTALog.e(TAG, "Failed to read fingerprint", e);
+            return true;
+        }
+
+        File bundleFile = new File(bundleFolder, BUNDLE_NAME);
+        long size = Long.parseLong(fingerprint.getProperty(KEY_SIZE, "-1"));
+        long mtime = Long.parseLong(fingerprint.getProperty(KEY_MTIME, "-1"));
+        if (!bundleFile.exists() || bundleFile.length() != size) {
+            OTALog.e(TAG, "Bundle size does not match fingerprint: " + bundleFile.getAbsolutePath());
+            return false;
+        }
+        if (bundleFile.lastModified() == mtime) {
+            return true;
+        }
+
+        // The file was touched since install, only now pay for a full hash
+        try {
+            String sha256 = sha256(bundleFile);
+            if (sha256.equals(fingerprint.getProperty(KEY_SHA256))) {
+                writeFingerprint(bundleFolder, bundleFile, sha256);
+                return true;
+            }
+        } catch (IOException e) {
+            OTALog.e(TAG, "Failed to hash bundle", e);
+        }
+        OTALog.e(TAG, "Bundle hash does not match fingerprint: " + bundleFile.getAbsolutePath());
+        return false;
+    }
+
+    // The hash recorded when the bundle was installed, null when it has no fingerprint
+    public static String recordedSha256(File bundleFolder) {
+        Properties fingerprint = new Properties();
+        try (FileInputStream in = new FileInputStream(new File(bundleFolder, FINGERPRINT_FILE))) {
+            fingerprint.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        return fingerprint.getProperty(KEY_SHA256);
+    }
+
+    private static void writeFingerprint(File bundleFolder, File bundleFile, String sha256) throws IOException {
+        Properties fingerprint = new Properties();
+        fingerprint.setProperty(KEY_SHA256, sha256);
+        fingerprint.setProperty(KEY_SIZE, Long.toString(bundleFile.length()));
+        fingerprint.setProperty(KEY_MTIME, Long.toString(bundleFile.lastModified()));
+        try (FileOutputStream out = new FileOutputStream(new File(bundleFolder, FINGERPRINT_FILE))) {
+            fingerprint.store(out, null);
+        }
+    }
+}
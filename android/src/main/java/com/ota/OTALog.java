@@ -0,0 +1,131 @@
+package com.ota;
+
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+
+// Logging and tracing for the whole module. Messages below the runtime level are dropped
+// before they are built: pass a Message lambda instead of a concatenated string wherever
+// formatting costs something. Pipeline stages are wrapped in android.os.Trace sections,
+// which cost next to nothing unless a Perfetto or systrace capture is running.
+public final class OTALog {
+    public static final int NONE = Log.ASSERT + 1;
+
+    public interface Message {
+        String get();
+    }
+
+    private static volatile int level = Log.INFO;
+    private static volatile boolean tracing = true;
+
+    private OTALog() {
+    }
+
+    public static void setLevel(int newLevel) {
+        level = newLevel;
+    }
+
+    public static void setTracing(boolean enabled) {
+        tracing = enabled;
+    }
+
+    // Maps the logLevel option, unknown names keep the current level
+    public static int parseLevel(String name) {
+        switch (name) {
+            case "verbose": return Log.VERBOSE;
+            case "debug": return Log.DEBUG;
+            case "info": return Log.INFO;
+            case "warn": return Log.WARN;
+            case "error": return Log.ERROR;
+            case "none": return NONE;
+            default: return level;
+        }
+    }
+
+    public static boolean isLoggable(int priority) {
+        return priority >= level;
+    }
+
+    public static void v(String tag, Message message) {
+        if (Log.VERBOSE >= level) {
+            Log.v(tag, message.get());
+        }
+    }
+
+    public static void d(String tag, String message) {
+        if (Log.DEBUG >= level) {
+            Log.d(tag, message);
+        }
+    }
+
+    public static void d(String tag, Message message) {
+        if (Log.DEBUG >= level) {
+            Log.d(tag, message.get());
+        }
+    }
+
+    public static void i(String tag, String message) {
+        if (Log.INFO >= level) {
+            Log.i(tag, message);
+        }
+    }
+
+    public static void i(String tag, Message message) {
+        if (Log.INFO >= level) {
+            Log.i(tag, message.get());
+        }
+    }
+
+    public static void w(String tag, String message) {
+        if (Log.WARN >= level) {
+            Log.w(tag, message);
+        }
+    }
+
+    public static void w(String tag, String message, Throwable error) {
+        if (Log.WARN >= level) {
+            Log.w(tag, message, error);
+        }
+    }
+
+    public static void e(String tag, String message) {
+        if (Log.ERROR >= level) {
+            Log.e(tag, message);
+        }
+    }
+
+    public static void e(String tag, String message, Throwable error) {
+        if (Log.ERROR >= level) {
+            Log.e(tag, message, error);
+        }
+    }
+
+    // Synchronous section, must be ended on the same thread
+    public static void beginSection(String name) {
+        if (tracing) {
+            Trace.beginSection(name);
+        }
+    }
+
+    public static void endSection() {
+        if (tracing) {
+            Trace.endSection();
+        }
+    }
+
+    // Section that may end on another thread, e.g. a download finishing on OkHttp's dispatcher.
+    // Returns the cookie for endAsyncSection. Async sections need API 29.
+    public static int beginAsyncSection(String name) {
+        int cookie = (int) System.nanoTime();
+        if (tracing && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(name, cookie);
+        }
+        return cookie;
+    }
+
+    public static void endAsyncSection(String name, int cookie) {
+        if (tracing && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(name, cookie);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.ota;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Builds a new bundle folder from a file manifest in its staging folder. Files the blob store
+// already holds are linked locally, only missing or changed files are downloaded. The caller
+// commits the sealed folder.
+public class OTAManifestSync {
+    private static final String TAG = "OTAManifestSync";
+    private static final int MAX_PARALLEL_DOWNLOADS = 4;
+
+    public interface SyncCallback {
+        void onComplete(Exception error);
+    }
+
+    static class Entry {
+        final String path;
+        final String hash;
+        final long size;
+        final String url;
+
+        Entry(String path, String hash, long size, String url) {
+            this.path = path;
+            this.hash = hash;
+            this.size = size;
+            this.url = url;
+        }
+    }
+
+    private final Context context;
+    private final List<Entry> entries;
+    private final File workFolder;
+    private final SyncCallback callback;
+
+    private final List<Entry> toDownload = new ArrayList<>();
+    private final AtomicInteger nextDownload = new AtomicInteger(0);
+    private final AtomicInteger remainingDownloads = new AtomicInteger(0);
+    private final AtomicBoolean failed = new AtomicBoolean(false);
+    // The per-file downloads add up to one sample of the download metrics
+    private volatile long startedAtNanos = 0;
+    // Every download started so far, cancelling a finished one is a no-op
+    private final List<OTADownloadHandler> handlers = new ArrayList<>();
+
+    public OTAManifestSync(Context context, JSONObject manifest, File stagingFolder,
+                           SyncCallback callback) throws JSONException {
+        this.context = context;
+        this.entries = parse(manifest.getJSONArray("files"));
+        this.workFolder = stagingFolder;
+        this.callback = callback;
+    }
+
+    static List<Entry> parse(JSONArray files) throws JSONException {
+        List<Entry> entries = new ArrayList<>(files.length());
+        for (int i = 0; i < files.length(); i++) {
+            JSONObject file = files.getJSONObject(i);
+            entries.add(new Entry(
+                file.getString("path"),
+                file.getString("hash").toLowerCase(),
+                file.optLong("size", -1),
+                file.isNull("url") ? null : file.optString("url")
+            ));
+        }
+        return entries;
+    }
+
+    public void start() {
+        // Linking and copying happen on the OTA executor, downloads run on OkHttp's dispatcher
+        execute(() -> {
+            try {
+                OTABundleManager.deleteRecursive(workFolder);
+                if (!workFolder.mkdirs()) {
+                    throw new IOException("Failed to create directory: " + workFolder.getAbsolutePath());
+                }
+
+                File otaDirectory = FolderUtils.getOtaDirectory(context);
+                File activeFolder = activeBundleFolder();
+                int reused = 0;
+                for (Entry entry : entries) {
+                    File existing = findReusable(otaDirectory, activeFolder, entry);
+                    if (existing != null) {
+                        OTABlobStore.linkOrCopy(existing, createParent(resolve(workFolder, entry.path)));
+                        reused++;
+                    } else if (entry.url == null) {
+                        throw new IOException("No download URL for changed file " + entry.path);
+                    } else {
+                        toDownload.add(entry);
+                    }
+                }
+
+                int reusedCount = reused;
+                OTALog.d(TAG, () -> "Reusing " + reusedCount + " files, downloading " + toDownload.size() + " files");
+
+                if (toDownload.isEmpty()) {
+                    finish();
+                    return;
+                }
+
+                startedAtNanos = System.nanoTime();
+                remainingDownloads.set(toDownload.size());
+                for (int i = 0; i < Math.min(MAX_PARALLEL_DOWNLOADS, toDownload.size()); i++) {
+                    downloadNext();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+    }
+
+    // Stops the downloads in flight and starts no new ones. The callback is not called.
+    public void cancel() {
+        if (failed.compareAndSet(false, true)) {
+            OTALog.d(TAG, "Manifest sync cancelled");
+            cancelDownloads();
+        }
+    }
+
+    private void cancelDownloads() {
+        List<OTADownloadHandler> started;
+        synchronized (handlers) {
+            started = new ArrayList<>(handlers);
+        }
+        for (OTADownloadHandler handler : started) {
+            handler.cancel();
+        }
+    }
+
+    private void execute(Runnable task) {
+        if (!OTAExecutor.execute(task)) {
+            fail(new IOException("OTA executor is saturated"));
+        }
+    }
+
+    private void downloadNext() {
+        int index = nextDownload.getAndIncrement();
+        if (index >= toDownload.size() || failed.get()) {
+            return;
+        }
+
+        Entry entry = toDownload.get(index);
+        File target;
+        try {
+            target = createParent(resolve(workFolder, entry.path));
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+
+        OTADownloadHandler downloadHandler = new OTADownloadHandler(
+            target,
+            (bytesDone, totalBytes) -> { },
+            // Hashing the file is disk work, leave OkHttp's thread first
+            format -> execute(() -> {
+                if (failed.get()) {
+                    return;
+                }
+                try {
+                    if (!matches(target, entry)) {
+                        throw new IOException("Hash mismatch for " + entry.path);
+                    }
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+
+                if (remainingDownloads.decrementAndGet() == 0) {
+                    finish();
+                } else {
+                    downloadNext();
+                }
+            }),
+            this::fail
+        );
+        downloadHandler.setRecordMetrics(false);
+        synchronized (handlers) {
+            handlers.add(downloadHandler);
+        }
+        downloadHandler.download(entry.url);
+    }
+
+    private void finish() {
+        if (failed.get()) {
+            return;
+        }
+        if (startedAtNanos != 0) {
+            long bytes = 0;
+            synchronized (handlers) {
+                for (OTADownloadHandler handler : handlers) {
+                    bytes += handler.getNetworkBytes();
+                }
+            }
+            OTADownloadHandler.recordDownload(startedAtNanos, bytes);
+        }
+        // Every file was verified against the manifest, so its hash is known already
+        Map<String, String> hashes = new HashMap<>();
+        for (Entry entry : entries) {
+            hashes.put(entry.path, entry.hash);
+        }
+        OTAIntegrity.sealBundle(FolderUtils.getOtaDirectory(context), workFolder, hashes);
+        callback.onComplete(null);
+    }
+
+    private void fail(Exception error) {
+        if (failed.compareAndSet(false, true)) {
+            OTALog.e(TAG, "Manifest sync failed", error);
+            cancelDownloads();
+            OTABundleManager.deleteRecursive(workFolder);
+            callback.onComplete(error);
+        }
+    }
+
+    private File activeBundleFolder() throws IOException {
+        try {
+            return OTABundleManager.getActiveBundleFolder(context);
+        } catch (PackageManager.NameNotFoundException e) {
+            throw new IOException("Failed to get app version", e);
+        }
+    }
+
+    // A local file with the entry's content, found by the hashes recorded at install instead of
+    // hashing the active bundle again. Without a blob store, e.g. where hardlinks are not
+    // available, only the active bundle's fingerprint is left to go by.
+    private static File findReusable(File otaDirectory, File activeFolder, Entry entry) throws IOException {
+        File blob = otaDirectory != null ? OTABlobStore.find(otaDirectory, entry.hash) : null;
+        if (blob != null && (entry.size < 0 || blob.length() == entry.size)) {
+            return blob;
+        }
+        if (activeFolder == null || !entry.path.equals(OTAIntegrity.BUNDLE_NAME)) {
+            return null;
+        }
+        File bundleFile = resolve(activeFolder, entry.path);
+        if (bundleFile.isFile() && (entry.size < 0 || bundleFile.length() == entry.size)
+                && entry.hash.equals(OTAIntegrity.recordedSha256(activeFolder))
+                && OTAIntegrity.isBundleIntact(activeFolder)) {
+            return bundleFile;
+        }
+        return null;
+    }
+
+    private static boolean matches(File file, Entry entry) throws IOException {
+        if (!file.isFile() || (entry.size >= 0 && file.length() != entry.size)) {
+            return false;
+        }
+        return OTAIntegrity.sha256(file).equals(entry.hash);
+    }
+
+    private static File resolve(File root, String path) throws IOException {
+        File file = new File(root, path);
+        if (!file.getCanonicalPath().startsWith(root.getCanonicalPath() + File.separator)) {
+            throw new IOException("Manifest path is outside of the bundle folder: " + path);
+        }
+        return file;
+    }
+
+    private static File createParent(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs() && !parent.exists()) {
+            throw new IOException("Failed to create directory: " + parent.getAbsolutePath());
+        }
+        return file;
+    }
+}
@@ -0,0 +1,84 @@
+package com.ota;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Timings and counters of the update pipeline for this process. Every metric keeps the number
+// of samples and the last, total and maximum value, so averages and regressions can be derived
+// by the app's analytics. Names carry their unit.
+public class OTAMetrics {
+    public static final String BUNDLE_RESOLUTION_US = "bundleResolutionUs";
+    public static final String CHECK_ROUND_TRIP_MS = "checkRoundTripMs";
+    public static final String CHECK_TIME_TO_FIRST_BYTE_MS = "checkTimeToFirstByteMs";
+    public static final String CHECK_CACHE_HITS = "checkCacheHits";
+    public static final String CHECK_NOT_MODIFIED = "checkNotModified";
+    public static final String DOWNLOAD_MS = "downloadMs";
+    public static final String DOWNLOAD_BYTES = "downloadBytes";
+    public static final String DOWNLOAD_BYTES_PER_SECOND = "downloadBytesPerSecond";
+    public static final String EXTRACT_MS = "extractMs";
+    public static final String EXTRACT_ENTRIES = "extractEntries";
+    public static final String COMMIT_MS = "commitMs";
+    public static final String CLEANUP_MS = "cleanupMs";
+    public static final String CLEANUP_BYTES_FREED = "cleanupBytesFreed";
+
+    public interface Listener {
+        void onMetric(String name, long value);
+    }
+
+    public static class Stat {
+        public long count;
+        public long last;
+        public long total;
+        public long max;
+
+        Stat copy() {
+            Stat copy = new Stat();
+            copy.count = count;
+            copy.last = last;
+            copy.total = total;
+            copy.max = max;
+            return copy;
+        }
+    }
+
+    private static final Map<String, Stat> stats = new LinkedHashMap<>();
+    private static volatile Listener listener;
+
+    public static void setListener(Listener newListener) {
+        listener = newListener;
+    }
+
+    public static void record(String name, long value) {
+        synchronized (stats) {
+            Stat stat = stats.get(name);
+            if (stat == null) {
+                stat = new Stat();
+                stats.put(name, stat);
+            }
+            stat.count++;
+            stat.last = value;
+            stat.total += value;
+            stat.max = Math.max(stat.max, value);
+        }
+
+        Listener current = listener;
+        if (current != null) {
+            current.onMetric(name, value);
+        }
+    }
+
+    // Records the milliseconds since startedAtNanos, taken from System.nanoTime()
+    public static void recordSince(String name, long startedAtNanos) {
+        record(name, (System.nanoTime() - startedAtNanos) / 1_000_000);
+    }
+
+    public static Map<String, Stat> snapshot() {
+        synchronized (stats) {
+            Map<String, Stat> copy = new LinkedHashMap<>();
+            for (Map.Entry<String, Stat> entry : stats.entrySet()) {
+                copy.put(entry.getKey(), entry.getValue().copy());
+            }
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.ota;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.WritableMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A running update operation (check, download, install) and every caller waiting for it.
+// Callers that arrive while an operation with the same key is in flight attach to it instead
+// of starting a second one, and all of them receive the same result. Results are plain maps,
+// so operations can also run without the React Native bridge, e.g. from a background worker.
+//
+// The operation moves through an explicit state machine:
+//   checking -> downloading -> extracting -> staged
+// Streaming installs and manifest syncs skip extracting. Finishing, by result, error or
+// cancel, takes it back to idle. Stages call moveTo before doing their work and stop when it
+// returns false, which is how a cancel reaches work that is already queued.
+public class OTAOperation {
+    private static final String TAG = "OTAOperation";
+
+    public static final String STATE_IDLE = "idle";
+    public static final String STATE_CHECKING = "checking";
+    public static final String STATE_DOWNLOADING = "downloading";
+    public static final String STATE_EXTRACTING = "extracting";
+    public static final String STATE_STAGED = "staged";
+
+    private static final Map<String, List<String>> TRANSITIONS = new HashMap<>();
+
+    static {
+        TRANSITIONS.put(STATE_CHECKING, Arrays.asList(STATE_DOWNLOADING));
+        TRANSITIONS.put(STATE_DOWNLOADING, Arrays.asList(STATE_EXTRACTING, STATE_STAGED));
+        TRANSITIONS.put(STATE_EXTRACTING, Arrays.asList(STATE_STAGED));
+        TRANSITIONS.put(STATE_STAGED, Collections.emptyList());
+    }
+
+    public interface Listener {
+        void onResolve(Map<String, Object> result);
+        void onReject(String code, String message, Throwable error);
+    }
+
+    // Running operations by key. Every check runs under one key, so there is at most one
+    // operation and it owns whatever bundle it installs.
+    private static final Map<String, OTAOperation> byKey = new HashMap<>();
+    // Bundle staged by the last operation, active from the next launch
+    private static volatile String stagedTarget;
+
+    private final String key;
+    private final List<Listener> listeners = new ArrayList<>();
+    private volatile String state = STATE_CHECKING;
+    private volatile String target;
+    private volatile boolean finished = false;
+    private boolean cancelled = false;
+    private final List<Runnable> cancelHooks = new ArrayList<>();
+
+    private OTAOperation(String key) {
+        this.key = key;
+    }
+
+    public static OTAOperation startOrJoin(String key, Promise promise) {
+        return startOrJoin(key, new Listener() {
+            @Override
+            public void onResolve(Map<String, Object> result) {
+                // Every promise gets its own map, a map is consumed when it crosses the bridge
+                promise.resolve(Arguments.makeNativeMap(result));
+            }
+
+            @Override
+            public void onReject(String code, String message, Throwable error) {
+                if (error != null) {
+                    promise.reject(code, message, error);
+                } else {
+                    promise.reject(code, message);
+                }
+            }
+        });
+    }
+
+    // Starts a new operation for key, or attaches listener to the running one and returns null
+    public static synchronized OTAOperation startOrJoin(String key, Listener listener) {
+        OTAOperation running = byKey.get(key);
+        if (running != null) {
+            OTALog.d(TAG, () -> "Joining in-flight operation " + key);
+            running.listeners.add(listener);
+            return null;
+        }
+
+        OTAOperation operation = new OTAOperation(key);
+        operation.listeners.add(listener);
+        byKey.put(key, operation);
+        return operation;
+    }
+
+    // The bundle this operation is about to install, reported by getOperationState
+    public void setTarget(String fileName) {
+        target = fileName;
+    }
+
+    // Moves to the next state. Returns false when the operation already finished or was
+    // cancelled, the caller then drops its work. Throws on a transition the pipeline never makes.
+    public boolean moveTo(String next) {
+        synchronized (OTAOperation.class) {
+            if (finished) {
+                return false;
+            }
+            if (!TRANSITIONS.get(state).contains(next)) {
+                throw new IllegalStateException("Invalid operation state change " + state + " -> " + next);
+            }
+            OTALog.d(TAG, () -> "Operation " + key + ": " + state + " -> " + next);
+            state = next;
+            if (STATE_STAGED.equals(next)) {
+                stagedTarget = target;
+            }
+            return true;
+        }
+    }
+
+    // A bundle activated outside an operation, e.g. a rollback, is what the next launch runs
+    public static void markStaged(String bundleName) {
+        stagedTarget = bundleName;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    // Registers work to stop when the operation is cancelled, e.g. a running download. Runs
+    // right away when the operation was cancelled already.
+    public void onCancel(Runnable hook) {
+        synchronized (OTAOperation.class) {
+            if (!cancelled) {
+                cancelHooks.add(hook);
+                return;
+            }
+        }
+        hook.run();
+    }
+
+    // Cancels the operation running under key. Every waiting caller is rejected with
+    // CANCELLED. A staged bundle is already active for the next launch and cannot be cancelled.
+    public static boolean cancel(String key) {
+        List<Runnable> hooks;
+        List<Listener> waiting;
+        synchronized (OTAOperation.class) {
+            OTAOperation running = byKey.get(key);
+            if (running == null || running.finished || STATE_STAGED.equals(running.state)) {
+                return false;
+            }
+            // Finished under the same lock as moveTo, so no stage can start after this point
+            running.cancelled = true;
+            hooks = new ArrayList<>(running.cancelHooks);
+            waiting = running.finish();
+        }
+        OTALog.d(TAG, () -> "Cancelled operation " + key);
+        for (Runnable hook : hooks) {
+            hook.run();
+        }
+        for (Listener listener : waiting) {
+            listener.onReject("CANCELLED", "Update was cancelled", null);
+        }
+        return true;
+    }
+
+    public void resolve(Map<String, Object> result) {
+        List<Listener> waiting = finish();
+        if (waiting != null) {
+            for (Listener listener : waiting) {
+                listener.onResolve(result);
+            }
+        }
+    }
+
+    public void reject(String code, String message) {
+        reject(code, message, null);
+    }
+
+    public void reject(String code, String message, Throwable error) {
+        List<Listener> waiting = finish();
+        if (waiting != null) {
+            for (Listener listener : waiting) {
+                listener.onReject(code, message, error);
+            }
+        }
+    }
+
+    // Current state of the operation running under key, for getOperationState
+    public static synchronized WritableMap describe(String key) {
+        OTAOperation running = byKey.get(key);
+        WritableMap result = Arguments.createMap();
+        if (running == null) {
+            // Idle, unless this process already staged a bundle for the next launch
+            String staged = stagedTarget;
+            if (staged != null) {
+                result.putString("state", STATE_STAGED);
+                result.putString("target", staged);
+            } else {
+                result.putString("state", STATE_IDLE);
+                result.putNull("target");
+            }
+            result.putInt("waiting", 0);
+        } else {
+            result.putString("state", running.state);
+            if (running.target != null) {
+                result.putString("target", running.target);
+            } else {
+                result.putNull("target");
+            }
+            result.putInt("waiting", running.listeners.size());
+        }
+        return result;
+    }
+
+    private List<Listener> finish() {
+        synchronized (OTAOperation.class) {
+            if (finished) {
+                return null;
+            }
+            finished = true;
+            // Map.remove(key, value) needs API 24
+            if (byKey.get(key) == this) {
+                byKey.remove(key);
+            }
+            cancelHooks.clear();
+            List<Listener> waiting = new ArrayList<>(listeners);
+            listeners.clear();
+            return waiting;
+        }
+    }
+}
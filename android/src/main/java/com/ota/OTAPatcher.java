@@ -0,0 +1,210 @@
+package com.ota;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+// Applies BSDIFF40 patches to the active JS bundle. A patch only carries the JS bundle,
+// every other file of the active bundle folder is carried over unchanged. bsdiff has no
+// checksum of its own and turns a different base into a corrupt bundle without an error, so
+// the base is checked against its fingerprint and the result against the server's hash.
+public class OTAPatcher {
+    private static final String TAG = "OTAPatcher";
+    private static final String BUNDLE_NAME = "index.android.bundle";
+    private static final byte[] MAGIC = "BSDIFF40".getBytes();
+    private static final int HEADER_SIZE = 32;
+
+    // Builds the patched bundle in stagingFolder and seals it, the caller commits it.
+    // expectedSha256 is the hash of the index.android.bundle the patch produces.
+    public static void install(Context context, File patchFile, File stagingFolder, String expectedSha256)
+            throws IOException {
+        File activeFolder;
+        try {
+            activeFolder = OTABundleManager.getActiveBundleFolder(context);
+        } catch (PackageManager.NameNotFoundException e) {
+            throw new IOException("Failed to get app version", e);
+        }
+        OTALog.d(TAG, () -> "Patching " + (activeFolder != null ? activeFolder.getName() : "nothing")
+            + " into " + stagingFolder.getAbsolutePath());
+
+        try {
+            // The APK's bundle has no folder of assets to carry over, OTAUpdater downloads the
+            // full package instead
+            if (activeFolder == null) {
+                throw new IOException("No installed bundle to patch");
+            }
+            byte[] oldBundle;
+            try (InputStream in = new FileInputStream(new File(activeFolder, BUNDLE_NAME))) {
+                oldBundle = readAll(in);
+            }
+            String baseSha256 = OTAIntegrity.toHex(OTAIntegrity.newDigest().digest(oldBundle));
+            if (!baseSha256.equals(OTAIntegrity.recordedSha256(activeFolder))) {
+                throw new IOException("Patch base " + activeFolder.getName() + " does not match its fingerprint");
+            }
+            copyDirectory(activeFolder, stagingFolder, BUNDLE_NAME);
+            new File(stagingFolder, OTAIntegrity.FINGERPRINT_FILE).delete();
+
+            MessageDigest digest = OTAIntegrity.newDigest();
+            try (OutputStream out = new DigestOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(new File(stagingFolder, BUNDLE_NAME))), digest)) {
+                applyPatch(oldBundle, patchFile, out);
+            }
+
+            String patchedSha256 = OTAIntegrity.toHex(digest.digest());
+            if (!patchedSha256.equalsIgnoreCase(expectedSha256)) {
+                throw new IOException("Patched bundle hash mismatch, expected " + expectedSha256 + " but got "
+                    + patchedSha256);
+            }
+            Map<String, String> hashes = new HashMap<>();
+            hashes.put(BUNDLE_NAME, patchedSha256);
+            OTAIntegrity.sealBundle(FolderUtils.getOtaDirectory(context), stagingFolder, hashes);
+        } catch (IOException e) {
+            OTAStagedInstall.abort(stagingFolder);
+            throw e;
+        }
+    }
+
+    public static void applyPatch(byte[] oldData, File patchFile, OutputStream out) throws IOException {
+        long ctrlLength;
+        long diffLength;
+        long newSize;
+
+        try (RandomAccessFile patch = new RandomAccessFile(patchFile, "r")) {
+            byte[] header = new byte[HEADER_SIZE];
+            patch.readFully(header);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (header[i] != MAGIC[i]) {
+                    throw new IOException("Not a BSDIFF40 patch");
+                }
+            }
+            ctrlLength = offtin(header, 8);
+            diffLength = offtin(header, 16);
+            newSize = offtin(header, 24);
+            if (ctrlLength < 0 || diffLength < 0 || newSize < 0
+                    || HEADER_SIZE + ctrlLength + diffLength > patch.length()) {
+                throw new IOException("Corrupt patch header");
+            }
+        }
+
+        // The control, diff and extra blocks are three independent bzip2 streams
+        try (DataInputStream ctrl = new DataInputStream(openBlock(patchFile, HEADER_SIZE));
+             DataInputStream diff = new DataInputStream(openBlock(patchFile, HEADER_SIZE + ctrlLength));
+             DataInputStream extra = new DataInputStream(openBlock(patchFile, HEADER_SIZE + ctrlLength + diffLength))) {
+
+            byte[] buffer = new byte[4096];
+            byte[] ctrlEntry = new byte[8];
+            long oldPos = 0;
+            long newPos = 0;
+
+            while (newPos < newSize) {
+                ctrl.readFully(ctrlEntry);
+                long addLength = offtin(ctrlEntry, 0);
+                ctrl.readFully(ctrlEntry);
+                long copyLength = offtin(ctrlEntry, 0);
+                ctrl.readFully(ctrlEntry);
+                long seek = offtin(ctrlEntry, 0);
+
+                if (addLength < 0 || copyLength < 0 || newPos + addLength + copyLength > newSize) {
+                    throw new IOException("Corrupt patch control block");
+                }
+
+                // Add diff bytes to the old data
+                long remaining = addLength;
+                while (remaining > 0) {
+                    int chunk = (int) Math.min(buffer.length, remaining);
+                    diff.readFully(buffer, 0, chunk);
+                    for (int i = 0; i < chunk; i++) {
+                        long index = oldPos + i;
+                        if (index >= 0 && index < oldData.length) {
+                            buffer[i] += oldData[(int) index];
+                        }
+                    }
+                    out.write(buffer, 0, chunk);
+                    oldPos += chunk;
+                    remaining -= chunk;
+                }
+                newPos += addLength;
+
+                // Copy extra bytes verbatim
+                remaining = copyLength;
+                while (remaining > 0) {
+                    int chunk = (int) Math.min(buffer.length, remaining);
+                    extra.readFully(buffer, 0, chunk);
+                    out.write(buffer, 0, chunk);
+                    remaining -= chunk;
+                }
+                newPos += copyLength;
+                oldPos += seek;
+            }
+        }
+    }
+
+    private static InputStream openBlock(File patchFile, long offset) throws IOException {
+        FileInputStream in = new FileInputStream(patchFile);
+        try {
+            long skipped = 0;
+            while (skipped < offset) {
+                long n = in.skip(offset - skipped);
+                if (n <= 0) {
+                    throw new IOException("Unexpected end of patch");
+                }
+                skipped += n;
+            }
+            return new BZip2CompressorInputStream(new BufferedInputStream(in));
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // bsdiff stores numbers as 8 byte little endian sign-magnitude values
+    private static long offtin(byte[] buf, int offset) {
+        long value = buf[offset + 7] & 0x7F;
+        for (int i = 6; i >= 0; i--) {
+            value = (value << 8) | (buf[offset + i] & 0xFF);
+        }
+        return (buf[offset + 7] & 0x80) != 0 ? -value : value;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void copyDirectory(File source, File target, String skipName) throws IOException {
+        for (File file : FolderUtils.getAllFilesInDirectory(source)) {
+            if (file.getName().equals(skipName)) {
+                continue;
+            }
+            File targetFile = new File(target, file.getName());
+            if (file.isDirectory()) {
+                if (!targetFile.exists() && !targetFile.mkdirs()) {
+                    throw new IOException("Failed to create directory: " + targetFile.getAbsolutePath());
+                }
+                copyDirectory(file, targetFile, null);
+            } else {
+                OTABlobStore.linkOrCopy(file, targetFile);
+            }
+        }
+    }
+}
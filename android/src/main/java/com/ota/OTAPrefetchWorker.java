@@ -0,0 +1,135 @@
+package com.ota;
+
+import android.content.Context;
+import android.os.Build;
+import androidx.annotation.NonNull;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Runs the update pipeline as a periodic WorkManager job. An installed update only moves the
+// active bundle pointer, so the next cold start picks it up through OTABundleManager.getBundleFile
+// without any work on the foreground path.
+public class OTAPrefetchWorker extends Worker {
+    private static final String TAG = "OTAPrefetchWorker";
+    private static final String WORK_NAME = "com.ota.prefetch";
+    // WorkManager stops workers after 10 minutes
+    private static final long MAX_RUN_MINUTES = 9;
+
+    public static class Settings {
+        public long intervalMinutes = 6 * 60;
+        public boolean requiresUnmetered = true;
+        public boolean requiresCharging = false;
+        public boolean requiresDeviceIdle = false;
+    }
+
+    // True while this worker runs a check it started, as opposed to one it joined
+    private volatile boolean ownsOperation = false;
+
+    public OTAPrefetchWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    public static void schedule(Context context, Settings settings) {
+        Constraints.Builder constraints = new Constraints.Builder()
+            .setRequiredNetworkType(settings.requiresUnmetered ? NetworkType.UNMETERED : NetworkType.CONNECTED)
+            .setRequiresCharging(settings.requiresCharging)
+            .setRequiresStorageNotLow(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            constraints.setRequiresDeviceIdle(settings.requiresDeviceIdle);
+        }
+
+        long intervalMs = Math.max(PeriodicWorkRequest.MIN_PERIODIC_INTERVAL_MILLIS,
+            TimeUnit.MINUTES.toMillis(settings.intervalMinutes));
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                OTAPrefetchWorker.class, intervalMs, TimeUnit.MILLISECONDS)
+            .setConstraints(constraints.build())
+            .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 10, TimeUnit.MINUTES)
+            .build();
+
+        OTALog.d(TAG, () -> "Scheduling background prefetch every " + intervalMs / 60_000 + " minutes");
+        // UPDATE keeps the current period running when the app sets the same options on every start
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.UPDATE, request);
+    }
+
+    public static void cancel(Context context) {
+        OTALog.d(TAG, "Cancelling background prefetch");
+        WorkManager.getInstance(context).cancelUniqueWork(WORK_NAME);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        if (OTAConfigStore.getUpdateCheckUrl(context) == null) {
+            OTALog.w(TAG, "No update check URL configured, skipping prefetch");
+            return Result.success();
+        }
+
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<String> errorCode = new AtomicReference<>();
+
+        // Joins a check the app started itself instead of running a second one
+        OTAOperation operation = OTAOperation.startOrJoin(OTAUpdater.CHECK_OPERATION, new OTAOperation.Listener() {
+            @Override
+            public void onResolve(Map<String, Object> result) {
+                OTALog.d(TAG, () -> "Background prefetch finished: " + result);
+                done.countDown();
+            }
+
+            @Override
+            public void onReject(String code, String message, Throwable error) {
+                OTALog.e(TAG, "Background prefetch failed: " + code + " " + message, error);
+                errorCode.set(code);
+                done.countDown();
+            }
+        });
+        if (operation != null) {
+            ownsOperation = true;
+            new OTAUpdater(context).checkForUpdate(operation);
+        }
+
+        try {
+            if (!done.await(MAX_RUN_MINUTES, TimeUnit.MINUTES)) {
+                OTALog.w(TAG, "Background prefetch timed out");
+                cancelOwnOperation();
+                return Result.retry();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelOwnOperation();
+            return Result.retry();
+        } finally {
+            ownsOperation = false;
+        }
+
+        // Interrupted transfers resume on retry, anything else waits for the next period
+        String code = errorCode.get();
+        if ("DOWNLOAD_ERROR".equals(code) || "SYNC_ERROR".equals(code)) {
+            return Result.retry();
+        }
+        return Result.success();
+    }
+
+    // WorkManager stops the worker when its constraints no longer hold, e.g. the device left an
+    // unmetered network. A download the app started itself keeps running.
+    @Override
+    public void onStopped() {
+        cancelOwnOperation();
+    }
+
+    private void cancelOwnOperation() {
+        if (ownsOperation) {
+            OTAOperation.cancel(OTAUpdater.CHECK_OPERATION);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.ota;
+
+import android.os.SystemClock;
+
+// Coalesces byte level progress of one phase (download, extract) into a few updates. An update
+// goes out when minIntervalMs passed and progress moved by minPercent since the last one, and
+// always when the phase completes. Throughput is smoothed, so the ETA does not jump around.
+public class OTAProgress {
+    public static final String PHASE_DOWNLOAD = "download";
+    public static final String PHASE_EXTRACT = "extract";
+
+    private static final double RATE_SMOOTHING = 0.3;
+
+    public interface Listener {
+        // totalBytes and etaMs are -1 when unknown
+        void onProgress(String phase, long bytesDone, long totalBytes, long bytesPerSecond, long etaMs);
+    }
+
+    private static volatile long minIntervalMs = 100;
+    private static volatile double minPercent = 0;
+
+    private final String phase;
+    private final Listener listener;
+    private final long startedAt = SystemClock.elapsedRealtime();
+    private long lastReportAt = -1;
+    private long lastReportBytes = -1;
+    private double bytesPerSecond = 0;
+    private boolean completed = false;
+
+    public OTAProgress(String phase, Listener listener) {
+        this.phase = phase;
+        this.listener = listener;
+    }
+
+    public static void configure(long intervalMs, double percent) {
+        minIntervalMs = Math.max(0, intervalMs);
+        minPercent = Math.max(0, percent);
+    }
+
+    // Called from transfer threads, possibly several at once for segmented downloads
+    public synchronized void update(long bytesDone, long totalBytes) {
+        if (listener == null || completed) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        boolean complete = totalBytes > 0 && bytesDone >= totalBytes;
+        if (!complete && lastReportAt >= 0) {
+            if (now - lastReportAt < minIntervalMs) {
+                return;
+            }
+            if (totalBytes > 0 && (bytesDone - lastReportBytes) * 100.0 / totalBytes < minPercent) {
+                return;
+            }
+        }
+
+        // Resumed transfers start above zero, only bytes moved in this session count for throughput
+        long sinceMs = lastReportAt >= 0 ? now - lastReportAt : now - startedAt;
+        long sinceBytes = lastReportBytes >= 0 ? bytesDone - lastReportBytes : 0;
+        if (sinceMs > 0 && lastReportBytes >= 0) {
+            double rate = sinceBytes * 1000.0 / sinceMs;
+            bytesPerSecond = bytesPerSecond == 0 ? rate : RATE_SMOOTHING * rate + (1 - RATE_SMOOTHING) * bytesPerSecond;
+        }
+
+        long etaMs = -1;
+        if (complete) {
+            etaMs = 0;
+        } else if (totalBytes > 0 && bytesPerSecond > 0) {
+            etaMs = (long) ((totalBytes - bytesDone) * 1000.0 / bytesPerSecond);
+        }
+
+        completed = complete;
+        lastReportAt = now;
+        lastReportBytes = bytesDone;
+        listener.onProgress(phase, bytesDone, totalBytes, (long) bytesPerSecond, etaMs);
+    }
+}
@@ -0,0 +1,200 @@
+package com.ota;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Installs are built in ota/staging/<bundle>: extracted, sealed, synced to disk in one pass and
+// then moved into the version directory with a single rename. A process killed halfway only
+// leaves a staging folder behind, the version directory never holds a half written bundle.
+public class OTAStagedInstall {
+    private static final String TAG = "OTAStagedInstall";
+    private static final String BUNDLE_NAME = "index.android.bundle";
+    // Leftovers of installs that never finished, older than this are moved to the trash
+    private static final long ABANDONED_AFTER_MS = 24 * 60 * 60_000L;
+
+    // What commit syncs before the rename: nothing, the files startup reads, or every file.
+    // bundle is the default. full waits for every file and pays a device cache flush per file,
+    // Android offers no syncfs to flush a whole filesystem once.
+    public static final String DURABILITY_NONE = "none";
+    public static final String DURABILITY_BUNDLE = "bundle";
+    public static final String DURABILITY_FULL = "full";
+
+    private interface DescriptorAction {
+        void apply(FileDescriptor fd) throws ErrnoException;
+    }
+
+    private static volatile String durability = DURABILITY_BUNDLE;
+
+    public static void setDurability(String level) {
+        if (DURABILITY_NONE.equals(level) || DURABILITY_BUNDLE.equals(level) || DURABILITY_FULL.equals(level)) {
+            durability = level;
+        } else {
+            OTALog.w(TAG, "Unknown install durability " + level + ", keeping " + durability);
+        }
+    }
+
+    public static File stagingFolder(File otaDirectory, String bundleName) {
+        return new File(FolderUtils.getStagingDirectory(otaDirectory), bundleName);
+    }
+
+    // Returns an empty staging folder for bundleName, dropping what an interrupted install of
+    // the same bundle left behind
+    public static File begin(File otaDirectory, String bundleName) throws IOException {
+        File stagingFolder = stagingFolder(otaDirectory, bundleName);
+        if (stagingFolder.exists()) {
+            OTALog.d(TAG, () -> "Discarding interrupted install of " + bundleName);
+            OTABundleManager.deleteRecursive(stagingFolder);
+        }
+        if (!stagingFolder.mkdirs()) {
+            throw new IOException("Failed to create directory: " + stagingFolder.getAbsolutePath());
+        }
+        return stagingFolder;
+    }
+
+    // Moves a sealed staging folder to bundleFolder. The files are synced first, so the rename
+    // can never expose a folder whose contents are still only in the page cache. A leftover
+    // bundleFolder is replaced, unless it is running or active: its files are still read.
+    public static void commit(File otaDirectory, File stagingFolder, File bundleFolder) throws IOException {
+        if (bundleFolder.exists() && OTABundleManager.isInUse(bundleFolder)) {
+            throw new IOException("Refusing to replace the bundle in use: " + bundleFolder.getAbsolutePath());
+        }
+        long startedAt = System.nanoTime();
+        String level = durability;
+        OTALog.beginSection("OTA.commit");
+        try {
+            int synced = sync(stagingFolder, level);
+
+            if (bundleFolder.exists() && !OTACleanupTask.moveToTrash(otaDirectory, bundleFolder)) {
+                throw new IOException("Failed to replace " + bundleFolder.getAbsolutePath());
+            }
+            if (!stagingFolder.renameTo(bundleFolder)) {
+                throw new IOException("Failed to move staged bundle to " + bundleFolder.getAbsolutePath());
+            }
+            syncRename(bundleFolder.getParentFile());
+
+            OTALog.d(TAG, () -> "Committed " + bundleFolder.getName() + ", synced " + synced
+                + " paths with durability " + level);
+            OTAMetrics.recordSince(OTAMetrics.COMMIT_MS, startedAt);
+        } finally {
+            OTALog.endSection();
+        }
+    }
+
+    public static void abort(File stagingFolder) {
+        if (stagingFolder.exists()) {
+            OTABundleManager.deleteRecursive(stagingFolder);
+        }
+    }
+
+    // Makes a rename inside directory survive a power loss, unless durability is none
+    public static void syncRename(File directory) {
+        if (DURABILITY_NONE.equals(durability)) {
+            return;
+        }
+        try {
+            syncPath(directory);
+        } catch (IOException e) {
+            OTALog.w(TAG, "Failed to sync " + directory.getAbsolutePath() + ": " + e.getMessage());
+        }
+    }
+
+    // Syncs a finished download before it is marked complete, unless durability is none
+    public static void syncFile(File file) throws IOException {
+        if (!DURABILITY_NONE.equals(durability)) {
+            syncPath(file);
+        }
+    }
+
+    // Moves staging folders of installs that were interrupted long ago to the trash. Recent
+    // ones may belong to an install that is still running.
+    public static int cleanupAbandoned(File otaDirectory) {
+        long cutoff = System.currentTimeMillis() - ABANDONED_AFTER_MS;
+        int moved = 0;
+        for (File stagingFolder : FolderUtils.getAllFilesInDirectory(FolderUtils.getStagingDirectory(otaDirectory))) {
+            if (stagingFolder.lastModified() < cutoff && OTACleanupTask.moveToTrash(otaDirectory, stagingFolder)) {
+                OTALog.d(TAG, () -> "Removed abandoned install " + stagingFolder.getName());
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    // Files are synced before the directories that name them. With full durability every
+    // file's writeback is started first, so the device has all of them queued at once and the
+    // waits that follow mostly find their pages already written. Each wait still ends with a
+    // cache flush of its own.
+    private static int sync(File stagingFolder, String level) throws IOException {
+        if (DURABILITY_NONE.equals(level)) {
+            return 0;
+        }
+
+        List<File> files = new ArrayList<>();
+        List<File> directories = new ArrayList<>();
+        if (DURABILITY_BUNDLE.equals(level)) {
+            // Only what startup reads: the bundle, its fingerprint and the folder naming them
+            for (String name : new String[] { BUNDLE_NAME, OTAIntegrity.FINGERPRINT_FILE }) {
+                File file = new File(stagingFolder, name);
+                if (file.exists()) {
+                    files.add(file);
+                }
+            }
+            directories.add(stagingFolder);
+        } else {
+            collect(stagingFolder, files, directories);
+        }
+
+        for (File file : files) {
+            // POSIX_FADV_DONTNEED starts writeback of the dirty pages without waiting for it. It
+            // also drops pages that are clean already, startup reads them from disk anyway.
+            withDescriptor(file, fd -> Os.posix_fadvise(fd, 0, 0, OsConstants.POSIX_FADV_DONTNEED));
+        }
+        for (File file : files) {
+            withDescriptor(file, Os::fdatasync);
+        }
+        for (File directory : directories) {
+            syncPath(directory);
+        }
+        return files.size() + directories.size();
+    }
+
+    // Directories come after their children
+    private static void collect(File directory, List<File> files, List<File> directories) {
+        for (File child : FolderUtils.getAllFilesInDirectory(directory)) {
+            if (child.isDirectory()) {
+                collect(child, files, directories);
+            } else {
+                files.add(child);
+            }
+        }
+        directories.add(directory);
+    }
+
+    private static void syncPath(File path) throws IOException {
+        withDescriptor(path, Os::fsync);
+    }
+
+    // Through a read only descriptor, which works for directories as well as files
+    private static void withDescriptor(File path, DescriptorAction action) throws IOException {
+        FileDescriptor fd = null;
+        try {
+            fd = Os.open(path.getAbsolutePath(), OsConstants.O_RDONLY, 0);
+            action.apply(fd);
+        } catch (ErrnoException e) {
+            throw new IOException("Failed to sync " + path.getAbsolutePath(), e);
+        } finally {
+            if (fd != null) {
+                try {
+                    Os.close(fd);
+                } catch (ErrnoException e) {
+                    OTALog.w(TAG, "Failed to close " + path.getAbsolutePath());
+                }
+            }
+        }
+    }
+}
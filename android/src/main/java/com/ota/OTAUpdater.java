@@ -0,0 +1,563 @@
+package com.ota;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.util.Log;
+import com.ota.core.BundleFolders;
+import com.ota.core.CachedCheck;
+import com.ota.core.CheckPolicy;
+import com.ota.core.CheckResponse;
+import com.ota.core.CheckSchedule;
+import com.ota.core.PackageFormat;
+import com.ota.core.PackageFormats;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.json.JSONObject;
+
+// The update pipeline: check, download, install. It only needs a Context, so the same code
+// serves checkForUpdate from JS and the background prefetch worker. Every stage runs on the
+// OTA executor, OkHttp threads only read response bodies and hand over.
+public class OTAUpdater {
+    private static final String TAG = "OTAUpdater";
+    public static final String CHECK_OPERATION = "check";
+
+    private final Context context;
+    private final OTAProgress.Listener progressListener;
+
+    public OTAUpdater(Context context) {
+        this(context, null);
+    }
+
+    public OTAUpdater(Context context, OTAProgress.Listener progressListener) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        this.progressListener = progressListener;
+    }
+
+    public void checkForUpdate(OTAOperation operation) {
+        OTAExecutor.run(operation, () -> startCheck(operation));
+    }
+
+    private void startCheck(OTAOperation operation) {
+        String updateCheckUrl = OTAConfigStore.getUpdateCheckUrl(context);
+
+        // Get current bundle name using the same logic as OTABundleManager
+        String currentFileName = getCurrentBundleName();
+
+        OTALog.d(TAG, () -> "Current bundle name: " + currentFileName);
+
+        // The request URL names the endpoint and the current bundle, it keys the check cache so
+        // an answer from an endpoint setConfig replaced is never reused
+        String requestUrl;
+        try {
+            HttpUrl.Builder urlBuilder = HttpUrl.parse(updateCheckUrl).newBuilder();
+            urlBuilder.addQueryParameter("filename", currentFileName);
+            requestUrl = urlBuilder.build().toString();
+        } catch (Exception e) {
+            OTALog.e(TAG, "Error creating request", e);
+            operation.reject("REQUEST_ERROR", "Failed to create request", e);
+            return;
+        }
+
+        File otaDirectory = FolderUtils.getOtaDirectory(context);
+        CachedCheck cached = otaDirectory != null ? OTACheckCache.load(otaDirectory, requestUrl) : null;
+        CheckSchedule schedule = otaDirectory != null ? OTACheckScheduler.getSchedule(otaDirectory) : null;
+        long now = System.currentTimeMillis();
+        switch (CheckPolicy.start(cached, schedule, now)) {
+            case CACHED:
+                OTALog.d(TAG, "Using cached update check response");
+                OTAMetrics.record(OTAMetrics.CHECK_CACHE_HITS, 1);
+                handleCheckResponse(cached.body, currentFileName, operation);
+                return;
+            case BACKING_OFF:
+                long backoffMs = schedule.remainingMs(now);
+                OTALog.d(TAG, () -> "Update check backing off for " + backoffMs + "ms");
+                operation.reject("BACKOFF", "Next update check allowed in " + ((backoffMs + 999) / 1000) + "s");
+                return;
+            default:
+                break;
+        }
+
+        try {
+            Request.Builder requestBuilder = new Request.Builder()
+                .url(requestUrl)
+                .get();
+            if (cached != null) {
+                for (Map.Entry<String, String> header : cached.conditionalHeaders().entrySet()) {
+                    requestBuilder.header(header.getKey(), header.getValue());
+                }
+            }
+            Request request = requestBuilder.build();
+
+            OTACheckScheduler.runWithJitter(() -> enqueueCheck(request, currentFileName, otaDirectory, cached, operation));
+        } catch (Exception e) {
+            OTALog.e(TAG, "Error creating request", e);
+            operation.reject("REQUEST_ERROR", "Failed to create request", e);
+        }
+    }
+
+    private void enqueueCheck(Request request, String currentFileName, File otaDirectory,
+                              CachedCheck cached, OTAOperation operation) {
+        if (operation.isFinished()) {
+            // Cancelled while waiting for the jitter delay
+            return;
+        }
+        long startedAt = System.nanoTime();
+        int traceCookie = OTALog.beginAsyncSection("OTA.check");
+        Call checkCall = OTAHttpClient.forChecks().newCall(request);
+        operation.onCancel(checkCall::cancel);
+        checkCall.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                OTALog.endAsyncSection("OTA.check", traceCookie);
+                OTAExecutor.run(operation, () -> onCheckFailed(otaDirectory, e, operation));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                OTALog.endAsyncSection("OTA.check", traceCookie);
+                OTAMetrics.record(OTAMetrics.CHECK_TIME_TO_FIRST_BYTE_MS,
+                    response.receivedResponseAtMillis() - response.sentRequestAtMillis());
+
+                // Only the body is read on this thread, storing and parsing it runs on the OTA executor
+                String responseData;
+                try (ResponseBody responseBody = response.body()) {
+                    responseData = response.isSuccessful() && responseBody != null ? responseBody.string() : null;
+                } catch (IOException e) {
+                    OTAExecutor.run(operation, () -> onCheckFailed(otaDirectory, e, operation));
+                    return;
+                }
+                if (responseData != null || (response.code() == 304 && cached != null)) {
+                    OTAMetrics.recordSince(OTAMetrics.CHECK_ROUND_TRIP_MS, startedAt);
+                }
+                OTAExecutor.run(operation, () ->
+                    onCheckResponse(response, responseData, request.url().toString(), currentFileName, otaDirectory,
+                        cached, operation));
+            }
+        });
+    }
+
+    private void onCheckFailed(File otaDirectory, IOException e, OTAOperation operation) {
+        OTALog.e(TAG, "Failed to check for update", e);
+        if (otaDirectory != null) {
+            OTACheckScheduler.onFailure(otaDirectory, -1, null);
+        }
+        operation.reject("API_ERROR", "Failed to check for update", e);
+    }
+
+    // responseData is null unless the response was successful and had a body
+    private void onCheckResponse(Response response, String responseData, String requestUrl, String currentFileName,
+                                 File otaDirectory, CachedCheck cached, OTAOperation operation) {
+        long now = System.currentTimeMillis();
+        switch (CheckPolicy.outcome(response.code(), responseData != null, cached)) {
+            case NOT_MODIFIED:
+                OTALog.d(TAG, "Update check response not modified");
+                OTAMetrics.record(OTAMetrics.CHECK_NOT_MODIFIED, 1);
+                if (otaDirectory != null) {
+                    OTACheckScheduler.onSuccess(otaDirectory);
+                    OTACheckCache.store(otaDirectory, requestUrl, cached.revalidated(response.header("ETag"),
+                        response.header("Last-Modified"), response.headers("Cache-Control"), now));
+                }
+                handleCheckResponse(cached.body, currentFileName, operation);
+                return;
+            case UPDATED:
+                if (otaDirectory != null) {
+                    OTACheckScheduler.onSuccess(otaDirectory);
+                    OTACheckCache.store(otaDirectory, requestUrl, CachedCheck.fromResponse(responseData,
+                        response.header("ETag"), response.header("Last-Modified"), response.headers("Cache-Control"), now));
+                }
+                handleCheckResponse(responseData, currentFileName, operation);
+                return;
+            case RETRY_LATER:
+                if (otaDirectory != null) {
+                    OTACheckScheduler.onFailure(otaDirectory, response.code(), response.header("Retry-After"));
+                }
+                break;
+            default:
+                break;
+        }
+
+        if (response.isSuccessful()) {
+            operation.reject("API_ERROR", "Empty response from server");
+        } else {
+            OTALog.e(TAG, "API returned non-200 status code: " + response.code());
+            operation.reject("API_ERROR", "API returned status code " + response.code());
+        }
+    }
+
+    private void handleCheckResponse(String responseData, String currentFileName, OTAOperation operation) {
+        try {
+            OTALog.v(TAG, () -> "JSON response: " + responseData);
+            CheckResponse check = CheckResponse.parse(responseData);
+
+            if (check.updateAvailable) {
+                OTALog.d(TAG, "Update available");
+
+                if (check.manifest != null) {
+                    // Per-file manifest, only changed files need to be downloaded
+                    operation.setTarget(check.filename);
+                    syncManifest(check.manifest, check.filename, operation);
+                    return;
+                }
+
+                String signedUrl = check.signedUrl;
+                String fileName = check.filename;
+
+                if (!check.signedUrlMatchesFilename()) {
+                    OTALog.e(TAG, "Signed URL does not contain file name");
+                    operation.reject("INVALID_SIGNED_URL", 
+                        "Signed URL does not contain file name");
+                    return;
+                }
+
+                operation.setTarget(fileName);
+
+                File downloadDirectory = FolderUtils.getDownloadDirectory(
+                    context
+                );
+
+                if (check.patch != null) {
+                    // The server sent a diff against the bundle we reported as filename
+                    String patchBase = check.patchBase != null ? check.patchBase : currentFileName;
+                    if (!"bsdiff".equals(check.patch) || !patchBase.equals(currentFileName)) {
+                        OTALog.e(TAG, "Unusable patch: " + check.patch + " against " + patchBase);
+                        operation.reject("INVALID_PATCH",
+                            "Patch does not apply to the current bundle");
+                        return;
+                    }
+                    if (BundleFolders.parseTimestamp(currentFileName) <= 0) {
+                        // The base is the bundle in the APK. A patch only rebuilds
+                        // index.android.bundle, and the APK's drawables would be missing next
+                        // to it once it loads from a bundle folder, so take the full package.
+                        if (check.packageUrl == null || !check.packageUrl.contains(fileName)) {
+                            OTALog.e(TAG, "Patch against the APK bundle without a full package");
+                            operation.reject("PATCH_BASE_UNAVAILABLE",
+                                "Patch cannot be applied to the bundle shipped in the APK");
+                            return;
+                        }
+                        OTALog.d(TAG, "No installed bundle to patch, downloading the full package");
+                        File packageFile = new File(downloadDirectory, fileName + ".zip");
+                        downloadPackage(check.packageUrl, packageFile.getAbsolutePath(), check.packageSha256,
+                            check.format, operation);
+                        return;
+                    }
+                    if (check.bundleSha256 == null) {
+                        // Only the hash of the result tells a correctly patched bundle from a corrupt one
+                        OTALog.e(TAG, "Patch without bundleSha256");
+                        operation.reject("INVALID_PATCH", "Patch has no bundleSha256 to verify the result");
+                        return;
+                    }
+                    File patchFile = new File(downloadDirectory, fileName + ".patch");
+                    downloadPatch(signedUrl, patchFile, fileName, check.sha256, check.bundleSha256, operation);
+                    return;
+                }
+
+                File fileUrl = new File(downloadDirectory, fileName + ".zip");
+
+                downloadPackage(signedUrl, fileUrl.getAbsolutePath(), check.sha256, check.format, operation);
+            } else {
+                OTALog.d(TAG, "No update available");
+                Map<String, Object> result = new HashMap<>();
+                result.put("updateAvailable", false);
+                operation.resolve(result);
+            }
+        } catch (Exception e) {
+            OTALog.e(TAG, "Error processing response", e);
+            operation.reject("PARSE_ERROR", "Failed to parse server response", e);
+        }
+    }
+
+    private void downloadPackage(String updatePackageUrl, String destinationPath,
+                               String expectedSha256, String declaredFormat, OTAOperation operation) {
+        OTALog.d(TAG, () -> "Downloading package from " + updatePackageUrl + " to " + destinationPath);
+        if (!operation.moveTo(OTAOperation.STATE_DOWNLOADING)) {
+            return;
+        }
+        boolean streamingInstall = OTAConfigStore.isStreamingInstall(context);
+
+        // Get app version first to handle potential exception
+        String appVersion;
+        try {
+            appVersion = getAppVersion();
+        } catch (PackageManager.NameNotFoundException e) {
+            OTALog.e(TAG, "Failed to get app version", e);
+            operation.reject("VERSION_ERROR", "Failed to get app version", e);
+            return;
+        }
+
+        // Ensure download directory exists
+        File destinationFile = new File(destinationPath);
+        File downloadDir = destinationFile.getParentFile();
+        if (!downloadDir.exists()) {
+            if (!downloadDir.mkdirs()) {
+                OTALog.e(TAG, "Failed to create download directory: " + downloadDir.getAbsolutePath());
+                operation.reject("DIRECTORY_ERROR", "Failed to create download directory");
+                return;
+            }
+            OTALog.d(TAG, () -> "Created download directory: " + downloadDir.getAbsolutePath());
+        }
+
+        String fileName = destinationFile.getName().substring(0, destinationFile.getName().lastIndexOf('.'));
+
+        // Ensure version directory exists
+        File versionDir = FolderUtils.getVersionDirectory(context, appVersion);
+        if (versionDir == null) {
+            OTALog.e(TAG, "Failed to create version directory");
+            operation.reject("DIRECTORY_ERROR", "Failed to create version directory");
+            return;
+        }
+
+        File destinationFolder = new File(versionDir, fileName);
+        File otaDirectory = FolderUtils.getOtaDirectory(context);
+        File stagingFolder = OTAStagedInstall.stagingFolder(otaDirectory, fileName);
+
+        OTADownloadHandler downloadHandler = new OTADownloadHandler(
+            destinationFile,
+            new OTAProgress(OTAProgress.PHASE_DOWNLOAD, progressListener)::update,
+            format -> OTAExecutor.run(operation, () -> {
+                OTALog.d(TAG, () -> "Download completed, format: " + (format != null ? format.getName() : "unknown"));
+
+                if (streamingInstall && format != null) {
+                    // The package was extracted and sealed while it downloaded, there is no zip to unpack
+                    onInstallComplete(stagingFolder, destinationFolder, null, operation);
+                    return;
+                }
+
+                // Check if the file exists before unzipping
+                if (!destinationFile.exists()) {
+                    OTALog.e(TAG, "Downloaded file does not exist: " + destinationFile.getAbsolutePath());
+                    operation.reject("FILE_ERROR", "Downloaded file does not exist");
+                    return;
+                }
+
+                if (format == null) {
+                    OTALog.e(TAG, "Unsupported package format: " + declaredFormat);
+                    OTADownloadHandler.discard(destinationFile);
+                    operation.reject("UNSUPPORTED_FORMAT", "Unsupported package format");
+                    return;
+                }
+
+                if (!operation.moveTo(OTAOperation.STATE_EXTRACTING)) {
+                    return;
+                }
+                try {
+                    extractPackage(destinationFile, format, OTAStagedInstall.begin(otaDirectory, fileName));
+                } catch (IOException e) {
+                    OTALog.e(TAG, "Unzip failed", e);
+                    OTAStagedInstall.abort(stagingFolder);
+                    // The package passed its checks but does not unpack, downloading it again is the only fix
+                    OTADownloadHandler.discard(destinationFile);
+                    operation.reject("UNZIP_ERROR", "Failed to unzip update", e);
+                    return;
+                }
+                onInstallComplete(stagingFolder, destinationFolder, destinationFile, operation);
+            }),
+            error -> {
+                OTALog.e(TAG, "Download failed", error);
+                operation.reject("DOWNLOAD_ERROR", "Failed to download update", error);
+            }
+        );
+
+        downloadHandler.setExpectedSha256(expectedSha256);
+        downloadHandler.setDeclaredFormat(declaredFormat);
+        operation.onCancel(downloadHandler::cancel);
+
+        if (streamingInstall) {
+            try {
+                OTAStagedInstall.begin(otaDirectory, fileName);
+            } catch (IOException e) {
+                OTALog.e(TAG, "Failed to create staging directory", e);
+                operation.reject("DIRECTORY_ERROR", "Failed to create staging directory", e);
+                return;
+            }
+            downloadHandler.downloadAndExtract(updatePackageUrl, stagingFolder, otaDirectory);
+        } else {
+            // A finished package survives an interrupted install and is not downloaded again
+            downloadHandler.setKeepCompleted(true);
+            downloadHandler.download(updatePackageUrl);
+        }
+    }
+
+    // expectedSha256 is the hash of the patch file, bundleSha256 the hash of the bundle it produces
+    private void downloadPatch(String patchUrl, File patchFile, String fileName, String expectedSha256,
+                               String bundleSha256, OTAOperation operation) {
+        OTALog.d(TAG, () -> "Downloading patch from " + patchUrl + " to " + patchFile.getAbsolutePath());
+        if (!operation.moveTo(OTAOperation.STATE_DOWNLOADING)) {
+            return;
+        }
+
+        File versionDir;
+        try {
+            versionDir = FolderUtils.getVersionDirectory(context, getAppVersion());
+        } catch (PackageManager.NameNotFoundException e) {
+            OTALog.e(TAG, "Failed to get app version", e);
+            operation.reject("VERSION_ERROR", "Failed to get app version", e);
+            return;
+        }
+        if (versionDir == null) {
+            operation.reject("DIRECTORY_ERROR", "Failed to create version directory");
+            return;
+        }
+
+        File destinationFolder = new File(versionDir, fileName);
+        File otaDirectory = FolderUtils.getOtaDirectory(context);
+        File stagingFolder = OTAStagedInstall.stagingFolder(otaDirectory, fileName);
+
+        OTADownloadHandler downloadHandler = new OTADownloadHandler(
+            patchFile,
+            new OTAProgress(OTAProgress.PHASE_DOWNLOAD, progressListener)::update,
+            format -> OTAExecutor.run(operation, () -> {
+                if (!operation.moveTo(OTAOperation.STATE_EXTRACTING)) {
+                    return;
+                }
+                try {
+                    OTALog.beginSection("OTA.patch");
+                    try {
+                        OTAPatcher.install(context, patchFile, OTAStagedInstall.begin(otaDirectory, fileName),
+                            bundleSha256);
+                    } finally {
+                        OTALog.endSection();
+                    }
+                } catch (IOException e) {
+                    OTALog.e(TAG, "Patch failed", e);
+                    OTADownloadHandler.discard(patchFile);
+                    operation.reject("PATCH_ERROR", "Failed to apply update patch", e);
+                    return;
+                }
+                onInstallComplete(stagingFolder, destinationFolder, patchFile, operation);
+            }),
+            error -> {
+                OTALog.e(TAG, "Patch download failed", error);
+                operation.reject("DOWNLOAD_ERROR", "Failed to download update", error);
+            }
+        );
+
+        downloadHandler.setExpectedSha256(expectedSha256);
+        downloadHandler.setKeepCompleted(true);
+        operation.onCancel(downloadHandler::cancel);
+        downloadHandler.download(patchUrl);
+    }
+
+    private void syncManifest(JSONObject manifest, String fileName, OTAOperation operation) throws Exception {
+        File versionDir = FolderUtils.getVersionDirectory(context, getAppVersion());
+        File otaDirectory = FolderUtils.getOtaDirectory(context);
+        if (versionDir == null || otaDirectory == null) {
+            operation.reject("DIRECTORY_ERROR", "Failed to create version directory");
+            return;
+        }
+
+        File destinationFolder = new File(versionDir, fileName);
+        File stagingFolder = OTAStagedInstall.stagingFolder(otaDirectory, fileName);
+        if (!operation.moveTo(OTAOperation.STATE_DOWNLOADING)) {
+            return;
+        }
+        OTAManifestSync sync = new OTAManifestSync(context, manifest, stagingFolder, error -> {
+            if (error != null) {
+                operation.reject("SYNC_ERROR", "Failed to sync update files", error);
+            } else {
+                onInstallComplete(stagingFolder, destinationFolder, null, operation);
+            }
+        });
+        operation.onCancel(sync::cancel);
+        sync.start();
+    }
+
+    // Commits the sealed staging folder and activates it. packageFile, the downloaded package
+    // or patch, is kept until the commit went through, so a failed commit does not cost a download.
+    private void onInstallComplete(File stagingFolder, File destinationFolder, File packageFile,
+                                   OTAOperation operation) {
+        if (operation.isFinished()) {
+            OTAStagedInstall.abort(stagingFolder);
+            return;
+        }
+
+        try {
+            OTAStagedInstall.commit(FolderUtils.getOtaDirectory(context), stagingFolder, destinationFolder);
+        } catch (IOException e) {
+            OTALog.e(TAG, "Failed to commit update", e);
+            OTAStagedInstall.abort(stagingFolder);
+            operation.reject("INSTALL_ERROR", "Failed to install update", e);
+            return;
+        }
+        OTALog.d(TAG, () -> "Unzip completed successfully to: " + destinationFolder.getAbsolutePath());
+        if (packageFile != null) {
+            OTADownloadHandler.discard(packageFile);
+        }
+
+        if (!operation.moveTo(OTAOperation.STATE_STAGED)) {
+            // Cancelled while the last stage ran, the folder must not be picked up at the next launch
+            OTABundleManager.deleteRecursive(destinationFolder);
+            return;
+        }
+
+        // Point the next launch at the new bundle
+        OTABundleManager.setActiveBundle(destinationFolder);
+
+        // Listing the installed files costs a directory scan, only do it when someone reads it
+        if (OTALog.isLoggable(Log.VERBOSE)) {
+            File[] unzippedContents = destinationFolder.listFiles();
+            if (unzippedContents != null) {
+                OTALog.v(TAG, () -> "Unzipped contents (" + unzippedContents.length + " items):");
+                for (File file : unzippedContents) {
+                    OTALog.v(TAG, () -> "  - " + file.getName() + (file.isDirectory() ? " (dir)" : " (file)"));
+                }
+            } else {
+                OTALog.w(TAG, "Unzipped directory is empty or not readable");
+            }
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        operation.resolve(result);
+    }
+
+    // Runs on the OTA executor. Zips are extracted in parallel from the file, other formats
+    // stream through their decoder.
+    private void extractPackage(File packageFile, PackageFormat format, File destinationFolder) throws IOException {
+        OTALog.d(TAG, () -> "Starting unzip process from " + packageFile.getAbsolutePath()
+            + " to " + destinationFolder.getAbsolutePath());
+        OTAExtractor.ProgressCallback progress = new OTAProgress(OTAProgress.PHASE_EXTRACT, progressListener)::update;
+        Map<String, String> hashes = format == PackageFormats.ZIP
+            ? OTAExtractor.extractFile(packageFile, destinationFolder, progress)
+            : OTAExtractor.extractPackage(packageFile, format, destinationFolder, progress);
+        OTAIntegrity.sealBundle(FolderUtils.getOtaDirectory(context), destinationFolder, hashes);
+        OTALog.d(TAG, "Unzip completed successfully");
+    }
+
+    private String getCurrentBundleName() {
+        try {
+            File activeBundle = OTABundleManager.getActiveBundleFolder(context);
+            if (activeBundle != null) {
+                OTALog.d(TAG, () -> "Found active bundle: " + activeBundle.getName());
+                return activeBundle.getName();
+            }
+
+            OTALog.d(TAG, "No valid bundle found, using initial filename");
+            String appVersion = getAppVersion();
+            String packageName = context.getPackageName();
+            return String.format("android_%s_%s_0", packageName, appVersion);
+            
+        } catch (Exception e) {
+            OTALog.e(TAG, "Error determining current bundle name", e);
+            try {
+                String appVersion = getAppVersion();
+                String packageName = context.getPackageName();
+                return String.format("android_%s_%s_0", packageName, appVersion);
+            } catch (Exception e2) {
+                OTALog.e(TAG, "Failed to construct fallback filename", e2);
+                return "android_unknown_unknown_0";
+            }
+        }
+    }
+
+    private String getAppVersion() throws PackageManager.NameNotFoundException {
+        return OTABundleManager.getAppVersion(context);
+    }
+}
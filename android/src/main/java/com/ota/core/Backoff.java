@@ -0,0 +1,59 @@
+package com.ota.core;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+// Delay policy for update checks: start jitter, capped exponential backoff and Retry-After.
+// CheckSchedule keeps the state around it, for OTACheckScheduler and the fleet simulator.
+public final class Backoff {
+    private static final String HTTP_DATE = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private Backoff() {
+    }
+
+    // Random delay of up to maxJitterMs before a check goes out
+    public static long jitterMs(long maxJitterMs, Random random) {
+        return maxJitterMs > 0 ? (long) (random.nextDouble() * maxJitterMs) : 0;
+    }
+
+    // Delay after the given number of consecutive failures. Equal jitter: half of the
+    // exponential step is fixed, the other half random.
+    public static long delayMs(int failures, long baseMs, long maxMs, Random random) {
+        long exponential = baseMs << Math.min(Math.max(failures, 1) - 1, 20);
+        long backoffMs = Math.min(maxMs, exponential);
+        return backoffMs / 2 + (long) (random.nextDouble() * (backoffMs / 2));
+    }
+
+    // Only overload and server errors back off, a bad request would fail again anyway
+    public static boolean isRetryable(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    // Statuses whose Retry-After header is honoured
+    public static boolean hasRetryAfter(int statusCode) {
+        return statusCode == 429 || statusCode == 503;
+    }
+
+    // Retry-After is either a number of seconds or an HTTP date, returns 0 when absent or invalid
+    public static long retryAfterMs(String retryAfter, long nowMs) {
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim())) * 1000L;
+        } catch (NumberFormatException e) {
+            SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                Date date = format.parse(retryAfter.trim());
+                return Math.max(0, date.getTime() - nowMs);
+            } catch (ParseException parseError) {
+                return 0;
+            }
+        }
+    }
+}
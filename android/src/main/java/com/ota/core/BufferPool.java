@@ -0,0 +1,42 @@
+package com.ota.core;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+// Copy buffers shared by downloads, extraction and hashing. A large update moves hundreds of
+// megabytes through these loops; reusing a handful of buffers keeps that off the GC.
+public final class BufferPool {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int MIN_BUFFER_SIZE = 4 * 1024;
+    // Enough for every extraction thread plus a download and a hash running alongside
+    private static final int MAX_POOLED = Math.max(4, Runtime.getRuntime().availableProcessors() + 2);
+
+    private static volatile int bufferSize = DEFAULT_BUFFER_SIZE;
+    private static volatile ArrayBlockingQueue<byte[]> free = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    private BufferPool() {
+    }
+
+    public static int getBufferSize() {
+        return bufferSize;
+    }
+
+    // Buffers handed out before a resize are dropped when they come back
+    public static synchronized void configure(int size) {
+        int newSize = Math.max(MIN_BUFFER_SIZE, size);
+        if (newSize != bufferSize) {
+            bufferSize = newSize;
+            free = new ArrayBlockingQueue<>(MAX_POOLED);
+        }
+    }
+
+    public static byte[] acquire() {
+        byte[] buffer = free.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    public static void release(byte[] buffer) {
+        if (buffer.length == bufferSize) {
+            free.offer(buffer);
+        }
+    }
+}
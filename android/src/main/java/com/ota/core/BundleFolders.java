@@ -0,0 +1,73 @@
+package com.ota.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Bundle folders are named <name>_<hex timestamp> inside the version directory. Selection
+// logic over them, kept free of Android so it can be benchmarked with many folders.
+public final class BundleFolders {
+    // Own interface instead of java.util.function, which Android only has from API 24
+    public interface Filter {
+        boolean accept(File bundleFolder);
+    }
+
+    private BundleFolders() {
+    }
+
+    // Folder names end in _<hex timestamp>, returns -1 when the name does not parse
+    public static long parseTimestamp(String folderName) {
+        int separator = folderName.lastIndexOf('_');
+        String hexTimestamp = folderName.substring(separator + 1);
+        try {
+            return Long.parseLong(hexTimestamp, 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Bundle folders with a parseable timestamp, newest first
+    public static List<File> newestFirst(File versionDirectory) {
+        File[] contents = versionDirectory.listFiles(File::isDirectory);
+        if (contents == null || contents.length == 0) {
+            return Collections.emptyList();
+        }
+
+        // Parse each name once instead of on every comparison
+        List<Candidate> candidates = new ArrayList<>(contents.length);
+        for (File item : contents) {
+            long timestamp = parseTimestamp(item.getName());
+            if (timestamp > 0) {
+                candidates.add(new Candidate(item, timestamp));
+            }
+        }
+        Collections.sort(candidates, (a, b) -> Long.compare(b.timestamp, a.timestamp));
+
+        List<File> bundles = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            bundles.add(candidate.folder);
+        }
+        return bundles;
+    }
+
+    // Recovery path: the newest bundle folder that usable accepts, or null
+    public static File findNewest(File versionDirectory, Filter usable) {
+        for (File bundleFolder : newestFirst(versionDirectory)) {
+            if (usable.accept(bundleFolder)) {
+                return bundleFolder;
+            }
+        }
+        return null;
+    }
+
+    private static class Candidate {
+        final File folder;
+        final long timestamp;
+
+        Candidate(File folder, long timestamp) {
+            this.folder = folder;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.ota.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// Which bundle folders stay on disk for local rollback, in least recently used order of the
+// activation times the app records per folder name. Kept free of Android like BundleFolders.
+public final class BundleRetention {
+    public interface Sizer {
+        long bytes(File bundleFolder);
+    }
+
+    private BundleRetention() {
+    }
+
+    // Folders to evict, least recently used first. lastUsed maps folder names to activation
+    // times, folders without an entry were never activated and come last. Pinned folders (the
+    // active bundle and the one running) and never activated folders modified after
+    // protectedAfter (committed by an install that has not activated them yet) are always
+    // kept, but still count against both limits. The others are kept most recently used first
+    // until one exceeds maxBundles or maxBytes, from there on everything goes. maxBytes <= 0
+    // means no byte quota.
+    public static List<File> evictions(File[] bundleFolders, Collection<File> pinned, Map<String, Long> lastUsed,
+                                       int maxBundles, long maxBytes, long protectedAfter, Sizer sizeOf) {
+        List<Candidate> candidates = new ArrayList<>(bundleFolders.length);
+        int keptCount = 0;
+        long keptBytes = 0;
+        for (File bundleFolder : bundleFolders) {
+            Long used = lastUsed.get(bundleFolder.getName());
+            long bytes = sizeOf.bytes(bundleFolder);
+            if (pinned.contains(bundleFolder) || (used == null && bundleFolder.lastModified() > protectedAfter)) {
+                keptCount++;
+                keptBytes += bytes;
+            } else {
+                candidates.add(new Candidate(bundleFolder, used != null ? used : 0, bytes));
+            }
+        }
+        // Most recently used first, ties go to the newer folder name
+        Collections.sort(candidates, (a, b) -> a.lastUsed != b.lastUsed
+            ? Long.compare(b.lastUsed, a.lastUsed)
+            : Long.compare(BundleFolders.parseTimestamp(b.folder.getName()), BundleFolders.parseTimestamp(a.folder.getName())));
+
+        int kept = 0;
+        while (kept < candidates.size()) {
+            Candidate candidate = candidates.get(kept);
+            if (keptCount + 1 > maxBundles || (maxBytes > 0 && keptBytes + candidate.bytes > maxBytes)) {
+                break;
+            }
+            keptCount++;
+            keptBytes += candidate.bytes;
+            kept++;
+        }
+
+        List<File> evicted = new ArrayList<>(candidates.size() - kept);
+        for (int i = candidates.size() - 1; i >= kept; i--) {
+            evicted.add(candidates.get(i).folder);
+        }
+        return evicted;
+    }
+
+    // Bytes of every file under folder. Files shared with other bundles through the blob
+    // store are counted in each of them, so this is an upper bound of what evicting frees.
+    public static long folderBytes(File folder) {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return 0;
+        }
+        long bytes = 0;
+        for (File child : children) {
+            bytes += child.isDirectory() ? folderBytes(child) : child.length();
+        }
+        return bytes;
+    }
+
+    private static class Candidate {
+        final File folder;
+        final long lastUsed;
+        final long bytes;
+
+        Candidate(File folder, long lastUsed, long bytes) {
+            this.folder = folder;
+            this.lastUsed = lastUsed;
+            this.bytes = bytes;
+        }
+    }
+}
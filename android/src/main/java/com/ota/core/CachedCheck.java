@@ -0,0 +1,88 @@
+package com.ota.core;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// A stored update check answer with its validators and freshness lifetime. The rules for
+// reusing, revalidating and storing it live here, so the app's OTACheckCache and the fleet
+// simulator cache exactly the same way.
+public final class CachedCheck {
+    public final String body;
+    public final String etag;
+    public final String lastModified;
+    public final long expiresAt;
+
+    public CachedCheck(String body, String etag, String lastModified, long expiresAt) {
+        this.body = body;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.expiresAt = expiresAt;
+    }
+
+    // Within the server's max-age, answered without a request
+    public boolean isFresh(long nowMs) {
+        return nowMs < expiresAt;
+    }
+
+    public boolean hasValidator() {
+        return etag != null || lastModified != null;
+    }
+
+    // Headers that revalidate this answer, an unchanged one comes back as an empty 304
+    public Map<String, String> conditionalHeaders() {
+        Map<String, String> headers = new LinkedHashMap<>();
+        if (etag != null) {
+            headers.put("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            headers.put("If-Modified-Since", lastModified);
+        }
+        return headers;
+    }
+
+    // The answer to keep after a 304. The 304 may carry new validators and always sets the
+    // new lifetime. Null when it must not be kept.
+    public CachedCheck revalidated(String newEtag, String newLastModified, List<String> cacheControl, long nowMs) {
+        return fromResponse(body, newEtag != null ? newEtag : etag,
+            newLastModified != null ? newLastModified : lastModified, cacheControl, nowMs);
+    }
+
+    // The answer to keep for a 200 response. Null when it must not be kept: the response
+    // says no-store, or it can neither be reused nor revalidated.
+    public static CachedCheck fromResponse(String body, String etag, String lastModified, List<String> cacheControl,
+                                           long nowMs) {
+        long maxAgeMs = maxAgeMs(cacheControl);
+        if (maxAgeMs < 0) {
+            return null;
+        }
+        CachedCheck entry = new CachedCheck(body, etag, lastModified, nowMs + maxAgeMs);
+        return maxAgeMs > 0 || entry.hasValidator() ? entry : null;
+    }
+
+    // Lifetime from the Cache-Control header values: max-age, 0 for no-cache or none, -1 for
+    // no-store
+    public static long maxAgeMs(List<String> cacheControl) {
+        long maxAgeSeconds = 0;
+        boolean noCache = false;
+        for (String value : cacheControl) {
+            for (String directive : value.split(",")) {
+                String name = directive.trim().toLowerCase(Locale.US);
+                if (name.equals("no-store")) {
+                    return -1;
+                } else if (name.startsWith("no-cache")) {
+                    noCache = true;
+                } else if (name.startsWith("max-age=")) {
+                    String seconds = name.substring("max-age=".length()).replace("\"", "").trim();
+                    try {
+                        maxAgeSeconds = Math.max(0, Long.parseLong(seconds));
+                    } catch (NumberFormatException e) {
+                        maxAgeSeconds = 0;
+                    }
+                }
+            }
+        }
+        return noCache ? 0 : maxAgeSeconds * 1000L;
+    }
+}
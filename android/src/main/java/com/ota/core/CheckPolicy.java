@@ -0,0 +1,51 @@
+package com.ota.core;
+
+// The steps around an update check request: answer from the cache, back off or send, and
+// what the response means for the cache and the schedule. OTAUpdater and the fleet simulator
+// both follow it, so simulated load matches what devices send.
+public final class CheckPolicy {
+    public enum Start {
+        // Still within the server's max-age, answer without touching the network
+        CACHED,
+        // A failed check pushed the next one out, do not send
+        BACKING_OFF,
+        // Send the request, conditional when there is a cached answer
+        SEND
+    }
+
+    public enum Outcome {
+        // 304 for the cached answer: reset the schedule and refresh its lifetime
+        NOT_MODIFIED,
+        // New answer: reset the schedule and store it
+        UPDATED,
+        // Overload or server error: record a failure so the schedule backs off
+        RETRY_LATER,
+        // Would fail again, e.g. a bad request, the schedule is left alone
+        FAILED
+    }
+
+    private CheckPolicy() {
+    }
+
+    public static Start start(CachedCheck cached, CheckSchedule schedule, long nowMs) {
+        if (cached != null && cached.isFresh(nowMs)) {
+            return Start.CACHED;
+        }
+        if (schedule != null && schedule.remainingMs(nowMs) > 0) {
+            return Start.BACKING_OFF;
+        }
+        return Start.SEND;
+    }
+
+    // hasBody is whether a successful response carried a body. Network errors are not a
+    // response, they always count as RETRY_LATER.
+    public static Outcome outcome(int statusCode, boolean hasBody, CachedCheck cached) {
+        if (statusCode == 304 && cached != null) {
+            return Outcome.NOT_MODIFIED;
+        }
+        if (statusCode >= 200 && statusCode < 300) {
+            return hasBody ? Outcome.UPDATED : Outcome.FAILED;
+        }
+        return Backoff.isRetryable(statusCode) ? Outcome.RETRY_LATER : Outcome.FAILED;
+    }
+}
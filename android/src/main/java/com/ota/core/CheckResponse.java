@@ -0,0 +1,70 @@
+package com.ota.core;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// The update check contract: what the check endpoint answers for ?filename=<current bundle>.
+// Parsed here so the app and the mock server in simulator/ agree on one definition.
+public class CheckResponse {
+    public final boolean updateAvailable;
+    public final String filename;
+    public final String signedUrl;
+    public final String sha256;
+    // Package format name, see PackageFormats. Null lets the installer sniff it.
+    public final String format;
+    // Per-file manifest, null for a full package
+    public final JSONObject manifest;
+    // Diff format and the bundle it applies to, null for a full package
+    public final String patch;
+    public final String patchBase;
+    // SHA-256 of the index.android.bundle the patch produces, required with a patch
+    public final String bundleSha256;
+    // Full package offered next to a patch, for devices the patch cannot apply to
+    public final String packageUrl;
+    public final String packageSha256;
+
+    private CheckResponse(JSONObject json) throws JSONException {
+        updateAvailable = json.optBoolean("updateAvailable", false);
+        manifest = updateAvailable ? json.optJSONObject("manifest") : null;
+        filename = updateAvailable ? json.getString("filename") : null;
+        signedUrl = updateAvailable && manifest == null ? json.getString("signedUrl") : null;
+        sha256 = optionalString(json, "sha256");
+        format = optionalString(json, "format");
+        patch = optionalString(json, "patch");
+        patchBase = optionalString(json, "patchBase");
+        bundleSha256 = optionalString(json, "bundleSha256");
+        packageUrl = optionalString(json, "packageUrl");
+        packageSha256 = optionalString(json, "packageSha256");
+    }
+
+    // Android's org.json returns an explicit JSON null as the string "null" from optString, the
+    // desktop one the simulator runs returns the fallback. Both agree on isNull.
+    private static String optionalString(JSONObject json, String key) {
+        return json.isNull(key) ? null : json.optString(key);
+    }
+
+    // Throws when an available update lacks filename, or signedUrl without a manifest
+    public static CheckResponse parse(String body) throws JSONException {
+        return new CheckResponse(new JSONObject(body));
+    }
+
+    // Signed URLs are issued per package, one that does not name the package is rejected
+    public boolean signedUrlMatchesFilename() {
+        return signedUrl != null && signedUrl.contains(filename);
+    }
+
+    public static String noUpdate() throws JSONException {
+        return new JSONObject().put("updateAvailable", false).toString();
+    }
+
+    public static String update(String filename, String signedUrl, String sha256) throws JSONException {
+        JSONObject json = new JSONObject()
+            .put("updateAvailable", true)
+            .put("filename", filename)
+            .put("signedUrl", signedUrl);
+        if (sha256 != null) {
+            json.put("sha256", sha256);
+        }
+        return json.toString();
+    }
+}
@@ -0,0 +1,37 @@
+package com.ota.core;
+
+import java.util.Random;
+
+// Backoff state of update checks: consecutive failures and when the next check may go out.
+// OTACheckScheduler persists it across app restarts, the fleet simulator keeps one per client.
+public final class CheckSchedule {
+    public int failures;
+    public long nextAllowedAt;
+
+    public CheckSchedule(int failures, long nextAllowedAt) {
+        this.failures = failures;
+        this.nextAllowedAt = nextAllowedAt;
+    }
+
+    // Milliseconds until the next check is allowed, 0 when a check may run now
+    public long remainingMs(long nowMs) {
+        return Math.max(0, nextAllowedAt - nowMs);
+    }
+
+    public void onSuccess() {
+        failures = 0;
+        nextAllowedAt = 0;
+    }
+
+    // Records a failed check and returns the delay until the next one. statusCode is -1 for a
+    // network error; retryAfter is the response's Retry-After header, if any.
+    public long onFailure(int statusCode, String retryAfter, long baseMs, long maxMs, Random random, long nowMs) {
+        failures++;
+        long delayMs = Backoff.delayMs(failures, baseMs, maxMs, random);
+        if (Backoff.hasRetryAfter(statusCode)) {
+            delayMs = Math.max(delayMs, Backoff.retryAfterMs(retryAfter, nowMs));
+        }
+        nextAllowedAt = nowMs + delayMs;
+        return delayMs;
+    }
+}
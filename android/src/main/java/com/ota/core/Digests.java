@@ -0,0 +1,53 @@
+package com.ota.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public final class Digests {
+    private Digests() {
+    }
+
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android release and every desktop JVM ships SHA-256
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    // Feeds the first length bytes of file into digest
+    public static void update(MessageDigest digest, File file, long length) throws IOException {
+        byte[] buffer = BufferPool.acquire();
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            long remaining = length;
+            while (remaining > 0) {
+                byteBuffer.clear();
+                byteBuffer.limit((int) Math.min(buffer.length, remaining));
+                int read = channel.read(byteBuffer);
+                if (read == -1) {
+                    break;
+                }
+                digest.update(buffer, 0, read);
+                remaining -= read;
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.ota.core;
+
+// Range request helpers for resumable downloads
+public final class HttpRanges {
+    private HttpRanges() {
+    }
+
+    // Validator to send in If-Range. Weak ETags are not allowed there, fall back to
+    // Last-Modified in that case. Null when the response has neither.
+    public static String validator(String etag, String lastModified) {
+        return etag != null && !etag.startsWith("W/") ? etag : lastModified;
+    }
+
+    // Content-Range: bytes <start>-<end>/<total>, returns -1 when it does not parse
+    public static long rangeStart(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(6, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public static long rangeTotal(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            // The total may be "*" when the server does not know it
+            return -1;
+        }
+    }
+
+    // Whether the 206 answer to a "bytes=0-" probe allows fetching the package in parallel
+    // ranges: more than one segment is wanted, the package reaches thresholdBytes and the
+    // response has a validator to send in If-Range
+    public static boolean canSegment(int segmentCount, long thresholdBytes, int statusCode, String contentRange,
+                                     String validator) {
+        return segmentCount > 1 && statusCode == 206 && validator != null && rangeStart(contentRange) == 0
+            && rangeTotal(contentRange) >= Math.max(1, thresholdBytes);
+    }
+
+    // Inclusive {start, end} byte ranges that split totalLength into at most segmentCount
+    // segments of equal size, the last one may be shorter
+    public static long[][] segments(long totalLength, int segmentCount) {
+        long segmentSize = (totalLength + segmentCount - 1) / segmentCount;
+        long[][] segments = new long[(int) ((totalLength + segmentSize - 1) / segmentSize)][];
+        for (int i = 0; i < segments.length; i++) {
+            long start = i * segmentSize;
+            segments[i] = new long[] {start, Math.min(start + segmentSize, totalLength) - 1};
+        }
+        return segments;
+    }
+
+    public static String contentRange(long start, long end, long total) {
+        return "bytes " + start + "-" + end + "/" + total;
+    }
+}
@@ -0,0 +1,50 @@
+package com.ota.core;
+
+import java.io.File;
+
+// Directory layout under the ota directory. Plain Java, so it can be used from the benchmarks
+// on a desktop JVM; FolderUtils adds the Context lookup on Android.
+public final class Layout {
+    public static final String OTA_DIR = "ota";
+    public static final String DOWNLOAD_DIR = "download";
+    public static final String BLOB_DIR = "blobs";
+    public static final String TRASH_DIR = "trash";
+    public static final String STAGING_DIR = "staging";
+
+    private Layout() {
+    }
+
+    public static File downloadDirectory(File otaDirectory) {
+        return new File(otaDirectory, DOWNLOAD_DIR);
+    }
+
+    public static File blobDirectory(File otaDirectory) {
+        return new File(otaDirectory, BLOB_DIR);
+    }
+
+    public static File trashDirectory(File otaDirectory) {
+        return new File(otaDirectory, TRASH_DIR);
+    }
+
+    public static File stagingDirectory(File otaDirectory) {
+        return new File(otaDirectory, STAGING_DIR);
+    }
+
+    public static File versionDirectory(File otaDirectory, String version) {
+        return new File(otaDirectory, version);
+    }
+
+    // Directories directly under the ota directory that are not app versions
+    public static boolean isReservedDirectory(String name) {
+        return name.equals(DOWNLOAD_DIR) || name.equals(BLOB_DIR) || name.equals(TRASH_DIR)
+            || name.equals(STAGING_DIR);
+    }
+
+    public static File[] listFiles(File directory) {
+        if (directory == null || !directory.exists()) {
+            return new File[0];
+        }
+        File[] files = directory.listFiles();
+        return files != null ? files : new File[0];
+    }
+}
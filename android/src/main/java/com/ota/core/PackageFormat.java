@@ -0,0 +1,20 @@
+package com.ota.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+// A package format the installer can unpack. Formats are looked up in PackageFormats, by
+// their magic bytes or by the name the check response sends in its format field.
+public interface PackageFormat {
+    String getName();
+
+    // True when header, the first bytes of a package, identifies this format. Formats without
+    // magic bytes return false and are only used when the check response names them.
+    boolean matches(byte[] header, int length);
+
+    // Unpacks the package read from in. Returns the SHA-256 of every extracted file keyed by
+    // its path inside the package, computed while writing.
+    Map<String, String> extract(InputStream in, File destinationDir) throws IOException;
+}
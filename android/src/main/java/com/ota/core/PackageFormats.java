@@ -0,0 +1,131 @@
+package com.ota.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.compress.compressors.brotli.BrotliCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
+
+// Registry of package formats. Built in are zip, tar, tar.gz, tar.br (pure Java decoder) and
+// tar.zst, which needs com.github.luben:zstd-jni in the app. Apps can register more.
+public final class PackageFormats {
+    // Enough to see the ustar marker of a plain tar at offset 257
+    public static final int SNIFF_BYTES = 512;
+
+    public interface Decompressor {
+        InputStream open(InputStream in) throws IOException;
+    }
+
+    public static final PackageFormat ZIP = new PackageFormat() {
+        @Override
+        public String getName() {
+            return "zip";
+        }
+
+        @Override
+        public boolean matches(byte[] header, int length) {
+            return StreamCopy.isZipHeader(header, length);
+        }
+
+        @Override
+        public Map<String, String> extract(InputStream in, File destinationDir) throws IOException {
+            return ZipExtraction.extract(in, destinationDir);
+        }
+    };
+
+    public static final PackageFormat TAR = tar("tar", "ustar".getBytes(StandardCharsets.US_ASCII), 257, in -> in);
+
+    public static final PackageFormat TAR_GZIP = tar("tar.gz", new byte[] { 0x1F, (byte) 0x8B }, 0,
+        in -> new GZIPInputStream(in, BufferPool.getBufferSize()));
+
+    public static final PackageFormat TAR_ZSTD = tar("tar.zst", new byte[] { 0x28, (byte) 0xB5, 0x2F, (byte) 0xFD }, 0,
+        in -> {
+            if (!ZstdUtils.isZstdCompressionAvailable()) {
+                throw new IOException("tar.zst packages need com.github.luben:zstd-jni in the app");
+            }
+            return new ZstdCompressorInputStream(in);
+        });
+
+    // Brotli streams have no magic bytes, the check response has to name this format
+    public static final PackageFormat TAR_BROTLI = tar("tar.br", null, 0, BrotliCompressorInputStream::new);
+
+    private static final List<PackageFormat> formats =
+        new CopyOnWriteArrayList<>(Arrays.asList(ZIP, TAR_GZIP, TAR_ZSTD, TAR_BROTLI, TAR));
+
+    private PackageFormats() {
+    }
+
+    // Registered formats are consulted before the built in ones
+    public static void register(PackageFormat format) {
+        formats.add(0, format);
+    }
+
+    public static PackageFormat forName(String name) {
+        if (name == null) {
+            return null;
+        }
+        for (PackageFormat format : formats) {
+            if (format.getName().equals(name)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    // Magic bytes win over the declared name, a server sending a zip under another name still
+    // installs. Returns null when neither identifies a known format.
+    public static PackageFormat detect(byte[] header, int length, String declaredName) {
+        for (PackageFormat format : formats) {
+            if (format.matches(header, length)) {
+                return format;
+            }
+        }
+        return forName(declaredName);
+    }
+
+    public static PackageFormat detect(File file, String declaredName) {
+        byte[] header = new byte[SNIFF_BYTES];
+        try (InputStream in = new FileInputStream(file)) {
+            return detect(header, StreamCopy.readFully(in, header), declaredName);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // A tar stream inside an optional compressor, recognized by magic at magicOffset. magic is
+    // null for formats without one.
+    public static PackageFormat tar(String name, byte[] magic, int magicOffset, Decompressor decompressor) {
+        return new PackageFormat() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public boolean matches(byte[] header, int length) {
+                if (magic == null || length < magicOffset + magic.length) {
+                    return false;
+                }
+                for (int i = 0; i < magic.length; i++) {
+                    if (header[magicOffset + i] != magic[i]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Map<String, String> extract(InputStream in, File destinationDir) throws IOException {
+                return TarExtraction.extract(decompressor.open(in), destinationDir);
+            }
+        };
+    }
+}
@@ -0,0 +1,99 @@
+package com.ota.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+// The copy loop shared by downloads and extraction: write, hash and report every chunk
+public final class StreamCopy {
+    private StreamCopy() {
+    }
+
+    public interface Listener {
+        void onChunk(int length);
+    }
+
+    // Copies until the end of the stream through a pooled buffer and returns the number of
+    // bytes copied. digest and listener may be null.
+    public static long copy(InputStream in, OutputStream out, MessageDigest digest, Listener listener) throws IOException {
+        byte[] buffer = BufferPool.acquire();
+        try {
+            return copy(in, out, buffer, digest, listener);
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    public static long copy(InputStream in, OutputStream out, byte[] buffer,
+                            MessageDigest digest, Listener listener) throws IOException {
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            write(out, buffer, read, digest, listener);
+            total += read;
+        }
+        return total;
+    }
+
+    public static void write(OutputStream out, byte[] buffer, int length,
+                             MessageDigest digest, Listener listener) throws IOException {
+        out.write(buffer, 0, length);
+        if (digest != null) {
+            digest.update(buffer, 0, length);
+        }
+        if (listener != null) {
+            listener.onChunk(length);
+        }
+    }
+
+    // Reads and discards the rest of the stream
+    public static long drain(InputStream in) throws IOException {
+        byte[] buffer = BufferPool.acquire();
+        try {
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+            }
+            return total;
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    // Local copy through FileChannel.transferTo, which lets the kernel move the data without
+    // passing it through the Java heap where the platform supports it
+    public static void copyFile(File source, File target) throws IOException {
+        try (FileChannel in = new FileInputStream(source).getChannel();
+             FileChannel out = new FileOutputStream(target).getChannel()) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    // Fills buffer unless the stream ends first, returns the number of bytes read
+    public static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = in.read(buffer, total, buffer.length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    public static boolean isZipHeader(byte[] header, int length) {
+        return length >= 4 && header[0] == 0x50 && header[1] == 0x4B &&
+               header[2] == 0x03 && header[3] == 0x04;
+    }
+}
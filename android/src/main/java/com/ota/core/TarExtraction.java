@@ -0,0 +1,265 @@
+package com.ota.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+// Unpacks a tar stream. Tar keeps no per-entry compression, so a compressor around it sees the
+// whole bundle as one solid stream and can use redundancy across files.
+//
+// Reads ustar, GNU long names and pax path and size records itself. commons-compress's
+// TarArchiveEntry links against java.nio.file, which Android only has from API 26. The
+// stream is only ever read, never skipped, as the skip of the commons-compress compressors
+// goes through the same nio bound IOUtils.
+public final class TarExtraction {
+    private static final int BLOCK_SIZE = 512;
+    // Long names and pax records are small, anything larger is not a bundle
+    private static final int MAX_METADATA_BYTES = 64 * 1024;
+
+    private TarExtraction() {
+    }
+
+    public static Map<String, String> extract(InputStream inputStream, File destinationDir) throws IOException {
+        if (!destinationDir.exists() && !destinationDir.mkdirs()) {
+            throw new IOException("Failed to create destination directory");
+        }
+
+        String canonicalDestination = destinationDir.getCanonicalPath() + File.separator;
+        Map<String, String> hashes = new HashMap<>();
+
+        byte[] header = new byte[BLOCK_SIZE];
+        String longName = null;
+        long paxSize = -1;
+        while (true) {
+            if (StreamCopy.readFully(inputStream, header) < BLOCK_SIZE) {
+                throw new IOException("Tar stream ended inside a header");
+            }
+            if (isZeroBlock(header)) {
+                // End of archive, the second zero block and padding are not needed
+                return hashes;
+            }
+            if (!hasValidChecksum(header)) {
+                throw new IOException("Tar header checksum mismatch");
+            }
+
+            char type = (char) header[156];
+            long size = paxSize >= 0 ? paxSize : parseNumber(header, 124, 12);
+            String name = longName != null ? longName : headerName(header);
+
+            if (type == 'L') {
+                longName = trimNul(readMetadata(inputStream, size));
+                continue;
+            }
+            if (type == 'x') {
+                Map<String, String> records = parsePax(readMetadata(inputStream, size));
+                longName = records.containsKey("path") ? records.get("path") : longName;
+                paxSize = records.containsKey("size") ? Long.parseLong(records.get("size")) : -1;
+                continue;
+            }
+            longName = null;
+            paxSize = -1;
+
+            if (type == 'g') {
+                // Global pax defaults carry nothing a bundle needs
+                skipEntry(inputStream, size);
+                continue;
+            }
+
+            File file = new File(destinationDir, name);
+            // The "./" entry of tar -C dir . is the destination itself
+            if (!(file.getCanonicalPath() + File.separator).startsWith(canonicalDestination)) {
+                throw new IOException("Tar entry is outside of the target directory: " + name);
+            }
+
+            // Pre-POSIX tars mark directories with a regular type and a trailing slash
+            if (type == '5' || (type == '\0' && name.endsWith("/"))) {
+                if (!file.exists() && !file.mkdirs()) {
+                    throw new IOException("Failed to create directory: " + file.getAbsolutePath());
+                }
+                skipEntry(inputStream, size);
+            } else if (type == '0' || type == '\0' || type == '7') {
+                File parent = file.getParentFile();
+                if (!parent.exists() && !parent.mkdirs()) {
+                    throw new IOException("Failed to create directory: " + parent.getAbsolutePath());
+                }
+                // Never write through an existing file, it may be a hardlink shared with other bundles
+                if (file.exists() && !file.delete()) {
+                    throw new IOException("Failed to replace file: " + file.getAbsolutePath());
+                }
+
+                MessageDigest digest = Digests.newSha256();
+                try (FileOutputStream out = new FileOutputStream(file)) {
+                    copyEntry(inputStream, out, size, digest);
+                }
+                hashes.put(stripDotSlash(name), Digests.toHex(digest.digest()));
+            } else {
+                // Links and devices have no place in a bundle and could point outside of it
+                throw new IOException("Unsupported tar entry: " + name);
+            }
+        }
+    }
+
+    // Copies size bytes of entry data and consumes the padding up to the next block
+    private static void copyEntry(InputStream in, FileOutputStream out, long size, MessageDigest digest)
+            throws IOException {
+        byte[] buffer = BufferPool.acquire();
+        try {
+            long remaining = size;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException("Tar stream ended inside an entry");
+                }
+                StreamCopy.write(out, buffer, read, digest, null);
+                remaining -= read;
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+        skipPadding(in, size);
+    }
+
+    private static void skipEntry(InputStream in, long size) throws IOException {
+        byte[] buffer = BufferPool.acquire();
+        try {
+            long remaining = size;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException("Tar stream ended inside an entry");
+                }
+                remaining -= read;
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+        skipPadding(in, size);
+    }
+
+    private static void skipPadding(InputStream in, long size) throws IOException {
+        int padding = (int) ((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE);
+        if (padding > 0 && StreamCopy.readFully(in, new byte[padding]) < padding) {
+            throw new IOException("Tar stream ended inside padding");
+        }
+    }
+
+    private static byte[] readMetadata(InputStream in, long size) throws IOException {
+        if (size < 0 || size > MAX_METADATA_BYTES) {
+            throw new IOException("Tar metadata entry too large: " + size);
+        }
+        byte[] data = new byte[(int) size];
+        if (StreamCopy.readFully(in, data) < data.length) {
+            throw new IOException("Tar stream ended inside an entry");
+        }
+        skipPadding(in, size);
+        return data;
+    }
+
+    // POSIX ustar splits long paths into prefix and name. Old GNU headers ("ustar  ") keep
+    // other fields at that offset.
+    private static String headerName(byte[] header) {
+        String name = trimNul(slice(header, 0, 100));
+        boolean ustar = header[257] == 'u' && header[258] == 's' && header[259] == 't'
+            && header[260] == 'a' && header[261] == 'r' && header[262] == 0;
+        if (ustar && header[345] != 0) {
+            return trimNul(slice(header, 345, 155)) + "/" + name;
+        }
+        return name;
+    }
+
+    // Pax records are "<length> <key>=<value>\n", length counting the whole record
+    private static Map<String, String> parsePax(byte[] data) throws IOException {
+        Map<String, String> records = new HashMap<>();
+        int offset = 0;
+        while (offset < data.length) {
+            int space = offset;
+            while (space < data.length && data[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(data, offset, space - offset, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid pax record");
+            }
+            if (length <= 0 || offset + length > data.length) {
+                throw new IOException("Invalid pax record");
+            }
+            String record = new String(data, space + 1, offset + length - space - 2, StandardCharsets.UTF_8);
+            int equals = record.indexOf('=');
+            if (equals > 0) {
+                records.put(record.substring(0, equals), record.substring(equals + 1));
+            }
+            offset += length;
+        }
+        return records;
+    }
+
+    // Octal, NUL or space terminated, or base-256 when the high bit of the first byte is set
+    private static long parseNumber(byte[] header, int offset, int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7F;
+            for (int i = 1; i < length; i++) {
+                value = (value << 8) | (header[offset + i] & 0xFF);
+            }
+            return value;
+        }
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b == 0 || (b == ' ' && value > 0)) {
+                break;
+            }
+            if (b == ' ') {
+                continue;
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("Invalid number in tar header");
+            }
+            value = (value << 3) + (b - '0');
+        }
+        return value;
+    }
+
+    // The checksum field counts as eight spaces
+    private static boolean hasValidChecksum(byte[] header) throws IOException {
+        long sum = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+        }
+        return sum == parseNumber(header, 148, 8);
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] slice(byte[] bytes, int offset, int length) {
+        byte[] slice = new byte[length];
+        System.arraycopy(bytes, offset, slice, 0, length);
+        return slice;
+    }
+
+    private static String trimNul(byte[] bytes) {
+        int length = 0;
+        while (length < bytes.length && bytes[length] != 0) {
+            length++;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // tar -C dir . stores entries as ./path, the bundle folder keys files by plain relative path
+    private static String stripDotSlash(String name) {
+        return name.startsWith("./") ? name.substring(2) : name;
+    }
+}
@@ -0,0 +1,65 @@
+package com.ota.core;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+// Deletes directory trees in bounded time slices. OTACleanupTask schedules the slices on a
+// low priority thread; each call to runFor does as much as fits in the given budget.
+public class TrashPurge {
+    public interface Listener {
+        // Bytes deleting file gives back, called right before the delete
+        long bytesFreedBy(File file);
+
+        void onDeleteFailed(File file);
+    }
+
+    private final Deque<File> pending = new ArrayDeque<>();
+    private final Set<File> expanded = new HashSet<>();
+    private final Listener listener;
+    private int deletedCount = 0;
+    private long freedBytes = 0;
+
+    public TrashPurge(File[] roots, Listener listener) {
+        for (File root : roots) {
+            pending.push(root);
+        }
+        this.listener = listener;
+    }
+
+    // Deletes for up to budgetNanos, returns true once everything is gone
+    public boolean runFor(long budgetNanos) {
+        long deadline = System.nanoTime() + budgetNanos;
+
+        // Depth first: a directory goes back on the stack until its children are gone
+        while (!pending.isEmpty() && System.nanoTime() - deadline < 0) {
+            File file = pending.pop();
+            File[] children = file.isDirectory() && expanded.add(file) ? file.listFiles() : null;
+            if (children != null && children.length > 0) {
+                pending.push(file);
+                for (File child : children) {
+                    pending.push(child);
+                }
+                continue;
+            }
+            long length = file.isFile() ? listener.bytesFreedBy(file) : 0;
+            if (file.delete()) {
+                deletedCount++;
+                freedBytes += length;
+            } else {
+                listener.onDeleteFailed(file);
+            }
+        }
+        return pending.isEmpty();
+    }
+
+    public int getDeletedCount() {
+        return deletedCount;
+    }
+
+    public long getFreedBytes() {
+        return freedBytes;
+    }
+}
@@ -0,0 +1,203 @@
+package com.ota.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+// Zip extraction without logging, tracing or metrics. OTAExtractor wraps it with those and
+// owns the thread pool; the benchmarks call it directly.
+public final class ZipExtraction {
+    private ZipExtraction() {
+    }
+
+    public interface ProgressCallback {
+        // totalBytes is -1 when the zip does not record every entry size
+        void onProgress(long bytesDone, long totalBytes);
+    }
+
+    // Extracts a zip stream entry by entry. Works on any stream, so it can sit directly
+    // on top of a network response as well as a file on disk. Returns the SHA-256 of every
+    // extracted file keyed by its path inside the zip, computed while writing.
+    public static Map<String, String> extract(InputStream inputStream, File destinationDir) throws IOException {
+        if (!destinationDir.exists() && !destinationDir.mkdirs()) {
+            throw new IOException("Failed to create destination directory");
+        }
+
+        String canonicalDestination = destinationDir.getCanonicalPath() + File.separator;
+        Map<String, String> hashes = new ConcurrentHashMap<>();
+
+        ZipInputStream zipIn = new ZipInputStream(inputStream);
+        ZipEntry entry = zipIn.getNextEntry();
+
+        // Iterate through all entries
+        while (entry != null) {
+            File file = new File(destinationDir, entry.getName());
+            if (!file.getCanonicalPath().startsWith(canonicalDestination)) {
+                throw new IOException("Zip entry is outside of the target directory: " + entry.getName());
+            }
+
+            if (!entry.isDirectory()) {
+                // Create parent directories if they don't exist
+                File parent = file.getParentFile();
+                if (!parent.exists() && !parent.mkdirs()) {
+                    throw new IOException("Failed to create directory: " + parent.getAbsolutePath());
+                }
+                replaceFile(file);
+
+                // Extract file, the pooled buffer is large enough that the file needs no buffering
+                MessageDigest digest = Digests.newSha256();
+                try (FileOutputStream out = new FileOutputStream(file)) {
+                    StreamCopy.copy(zipIn, out, digest, null);
+                }
+                hashes.put(entry.getName(), Digests.toHex(digest.digest()));
+            } else {
+                // Create directory if it doesn't exist
+                if (!file.exists() && !file.mkdirs()) {
+                    throw new IOException("Failed to create directory: " + file.getAbsolutePath());
+                }
+            }
+            zipIn.closeEntry();
+            entry = zipIn.getNextEntry();
+        }
+        return hashes;
+    }
+
+    // Extracts a zip file on disk. Reads the central directory up front, creates all
+    // directories once and then inflates entries in parallel on pool. Returns the SHA-256
+    // of every extracted file, like extract().
+    public static Map<String, String> extractFile(File zipFile, File destinationDir, ExecutorService pool,
+                                                  ProgressCallback progressCallback) throws IOException {
+        if (!destinationDir.exists() && !destinationDir.mkdirs()) {
+            throw new IOException("Failed to create destination directory");
+        }
+
+        String canonicalDestination = destinationDir.getCanonicalPath() + File.separator;
+
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            List<ZipEntry> fileEntries = new ArrayList<>();
+            TreeSet<String> directories = new TreeSet<>();
+
+            Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry entry = zipEntries.nextElement();
+                File file = new File(destinationDir, entry.getName());
+                String canonicalPath = file.getCanonicalPath();
+                if (!canonicalPath.startsWith(canonicalDestination)) {
+                    throw new IOException("Zip entry is outside of the target directory: " + entry.getName());
+                }
+
+                if (entry.isDirectory()) {
+                    directories.add(canonicalPath);
+                } else {
+                    directories.add(file.getParentFile().getCanonicalPath());
+                    fileEntries.add(entry);
+                }
+            }
+
+            // Sorted, so parents are created before their children and every mkdirs is cheap
+            for (String directory : directories) {
+                File dir = new File(directory);
+                if (!dir.exists() && !dir.mkdirs()) {
+                    throw new IOException("Failed to create directory: " + directory);
+                }
+            }
+
+            // Largest entries first keeps the workers busy until the end
+            Collections.sort(fileEntries, (a, b) -> Long.compare(b.getSize(), a.getSize()));
+
+            long totalBytes = 0;
+            for (ZipEntry entry : fileEntries) {
+                if (entry.getSize() < 0) {
+                    totalBytes = -1;
+                    break;
+                }
+                totalBytes += entry.getSize();
+            }
+            Progress progress = progressCallback != null ? new Progress(progressCallback, totalBytes) : null;
+
+            Map<String, String> hashes = new ConcurrentHashMap<>();
+            List<Future<?>> futures = new ArrayList<>(fileEntries.size());
+            for (ZipEntry entry : fileEntries) {
+                futures.add(pool.submit(() -> {
+                    String hash = extractEntry(zip, entry, new File(destinationDir, entry.getName()), progress);
+                    hashes.put(entry.getName(), hash);
+                    return null;
+                }));
+            }
+
+            try {
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                cancelAll(futures);
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException
+                    ? (IOException) cause
+                    : new IOException("Failed to extract entry", cause);
+            } catch (InterruptedException e) {
+                cancelAll(futures);
+                Thread.currentThread().interrupt();
+                throw new IOException("Extraction interrupted", e);
+            }
+            return hashes;
+        }
+    }
+
+    private static String extractEntry(ZipFile zip, ZipEntry entry, File file, Progress progress) throws IOException {
+        replaceFile(file);
+
+        MessageDigest digest = Digests.newSha256();
+        try (InputStream in = zip.getInputStream(entry);
+             FileOutputStream out = new FileOutputStream(file)) {
+            StreamCopy.copy(in, out, digest, progress);
+        }
+        return Digests.toHex(digest.digest());
+    }
+
+    // Never write through an existing file, it may be a hardlink shared with other bundles
+    private static void replaceFile(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to replace file: " + file.getAbsolutePath());
+        }
+    }
+
+    // Sums the bytes written by all extraction threads
+    private static class Progress implements StreamCopy.Listener {
+        private final ProgressCallback callback;
+        private final long totalBytes;
+        private final AtomicLong bytesDone = new AtomicLong();
+
+        Progress(ProgressCallback callback, long totalBytes) {
+            this.callback = callback;
+            this.totalBytes = totalBytes;
+        }
+
+        @Override
+        public void onChunk(int length) {
+            callback.onProgress(bytesDone.addAndGet(length), totalBytes);
+        }
+    }
+
+    private static void cancelAll(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.ota.benchmarks;
+
+import com.ota.core.TrashPurge;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// Fixture helpers shared by the benchmarks. Content is generated from a fixed seed so every
+// run, on every machine, works on the same bytes.
+final class BenchmarkFiles {
+    private static final long SEED = 42;
+
+    private BenchmarkFiles() {
+    }
+
+    static File createTempDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    static void deleteRecursive(File directory) {
+        new TrashPurge(new File[] { directory }, new TrashPurge.Listener() {
+            @Override
+            public long bytesFreedBy(File file) {
+                return 0;
+            }
+
+            @Override
+            public void onDeleteFailed(File file) {
+                throw new IllegalStateException("Failed to delete " + file);
+            }
+        }).runFor(Long.MAX_VALUE);
+    }
+
+    // A zip shaped like a bundle package: one large JS bundle and many small assets spread over
+    // a few directories. Half of every entry is random, the rest repeats, so it compresses
+    // roughly like minified JS. Returns the total uncompressed size.
+    static long writeBundleZip(File zipFile, int assetCount, int assetSize, int bundleSize) throws IOException {
+        Random random = new Random(SEED);
+        long totalBytes = 0;
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(zipFile))) {
+            totalBytes += writeEntry(zip, "index.android.bundle", bundleSize, random);
+            for (int i = 0; i < assetCount; i++) {
+                totalBytes += writeEntry(zip, "assets/dir" + (i % 16) + "/asset" + i + ".png", assetSize, random);
+            }
+        }
+        return totalBytes;
+    }
+
+    private static int writeEntry(ZipOutputStream zip, String name, int size, Random random) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content(size, random));
+        zip.closeEntry();
+        return size;
+    }
+
+    static byte[] content(int size, Random random) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        for (int i = size / 2; i < size; i++) {
+            bytes[i] = (byte) ('a' + i % 26);
+        }
+        return bytes;
+    }
+
+    static void writeFile(File file, int size) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content(size, new Random(SEED)));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.ota.benchmarks;
+
+import com.ota.core.TrashPurge;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// Emptying the trash: outdated bundle folders are deleted depth first, the same way the
+// cleanup task does it in time slices, here without a budget.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class CleanupBenchmark {
+    @Param({ "1", "10" })
+    public int bundleCount;
+
+    @Param({ "500" })
+    public int filesPerBundle;
+
+    private File trashDirectory;
+
+    @Setup(Level.Invocation)
+    public void fillTrash() throws IOException {
+        trashDirectory = BenchmarkFiles.createTempDirectory("ota-trash");
+        for (int bundle = 0; bundle < bundleCount; bundle++) {
+            for (int file = 0; file < filesPerBundle; file++) {
+                File directory = new File(trashDirectory, "bundle" + bundle + "/assets/dir" + (file % 16));
+                if (!directory.exists() && !directory.mkdirs()) {
+                    throw new IOException("Failed to create " + directory);
+                }
+                BenchmarkFiles.writeFile(new File(directory, "asset" + file + ".png"), 1024);
+            }
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void removeLeftovers() {
+        if (trashDirectory.exists()) {
+            BenchmarkFiles.deleteRecursive(trashDirectory);
+        }
+    }
+
+    @Benchmark
+    public int purge() {
+        TrashPurge purge = new TrashPurge(trashDirectory.listFiles(), new TrashPurge.Listener() {
+            @Override
+            public long bytesFreedBy(File file) {
+                return file.length();
+            }
+
+            @Override
+            public void onDeleteFailed(File file) {
+                throw new IllegalStateException("Failed to delete " + file);
+            }
+        });
+        purge.runFor(Long.MAX_VALUE);
+        return purge.getDeletedCount();
+    }
+}
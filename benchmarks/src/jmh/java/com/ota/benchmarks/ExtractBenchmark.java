@@ -0,0 +1,92 @@
+package com.ota.benchmarks;
+
+import com.ota.core.ZipExtraction;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// Extraction throughput of the parallel file path and the sequential stream path. The
+// bytes counter reports uncompressed bytes written per second next to the operation rate.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class ExtractBenchmark {
+    @Param({ "50", "500" })
+    public int assetCount;
+
+    @Param({ "16384" })
+    public int assetSize;
+
+    @Param({ "4194304" })
+    public int bundleSize;
+
+    private File workDirectory;
+    private File zipFile;
+    private File destination;
+    private long totalBytes;
+    private ExecutorService pool;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void createZip() throws IOException {
+        workDirectory = BenchmarkFiles.createTempDirectory("ota-extract");
+        zipFile = new File(workDirectory, "bundle.zip");
+        totalBytes = BenchmarkFiles.writeBundleZip(zipFile, assetCount, assetSize, bundleSize);
+        // Same sizing as the extraction pool in OTAExtractor
+        pool = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareDestination() {
+        destination = new File(workDirectory, "out");
+    }
+
+    @TearDown(Level.Invocation)
+    public void clearDestination() {
+        BenchmarkFiles.deleteRecursive(destination);
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanUp() {
+        pool.shutdownNow();
+        BenchmarkFiles.deleteRecursive(workDirectory);
+    }
+
+    @Benchmark
+    public Map<String, String> extractFile(Bytes counter) throws IOException {
+        Map<String, String> hashes = ZipExtraction.extractFile(zipFile, destination, pool, null);
+        counter.bytes += totalBytes;
+        return hashes;
+    }
+
+    @Benchmark
+    public Map<String, String> extractStream(Bytes counter) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(zipFile))) {
+            Map<String, String> hashes = ZipExtraction.extract(in, destination);
+            counter.bytes += totalBytes;
+            return hashes;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.ota.benchmarks;
+
+import com.ota.core.BundleFolders;
+import com.ota.core.BundleRetention;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// Bundle folder resolution over a version directory holding many bundle folders. This is the
+// startup recovery path taken when the active pointer is missing or stale. The retention pass
+// that cleanup runs over the same folders is measured too, it stats and sizes every folder.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class ResolveBenchmark {
+    private static final String BUNDLE_NAME = "index.android.bundle";
+
+    @Param({ "1", "10", "100", "1000" })
+    public int folderCount;
+
+    // The newest folders have no bundle file, so the scan has to skip them
+    @Param({ "0", "3" })
+    public int damagedCount;
+
+    private File versionDirectory;
+    private File[] bundleFolders;
+    private Map<String, Long> lastUsed;
+    private List<File> pinned;
+
+    @Setup(Level.Trial)
+    public void createFolders() throws IOException {
+        versionDirectory = BenchmarkFiles.createTempDirectory("ota-resolve");
+        long timestamp = 0x18c0000000L;
+        for (int i = 0; i < folderCount; i++) {
+            File bundleFolder = new File(versionDirectory, "index_" + Long.toHexString(timestamp + i));
+            if (!bundleFolder.mkdirs()) {
+                throw new IOException("Failed to create " + bundleFolder);
+            }
+            if (i < folderCount - damagedCount) {
+                BenchmarkFiles.writeFile(new File(bundleFolder, BUNDLE_NAME), 16);
+            }
+        }
+        bundleFolders = versionDirectory.listFiles(File::isDirectory);
+
+        // Every other folder was activated at some point, the newest one is active
+        lastUsed = new HashMap<>();
+        for (int i = 0; i < bundleFolders.length; i += 2) {
+            lastUsed.put(bundleFolders[i].getName(), timestamp + i);
+        }
+        pinned = Collections.singletonList(BundleFolders.newestFirst(versionDirectory).get(0));
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanUp() {
+        BenchmarkFiles.deleteRecursive(versionDirectory);
+    }
+
+    @Benchmark
+    public File findNewest() {
+        return BundleFolders.findNewest(versionDirectory, folder -> new File(folder, BUNDLE_NAME).exists());
+    }
+
+    // Default limits, nothing counts as freshly committed
+    @Benchmark
+    public List<File> selectEvictions() {
+        return BundleRetention.evictions(bundleFolders, pinned, lastUsed, 3, 100L * 1024 * 1024,
+            Long.MAX_VALUE, BundleRetention::folderBytes);
+    }
+}
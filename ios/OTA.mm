@@ -373,11 +373,48 @@ RCT_EXPORT_MODULE()
     return deletedCount;
 }
 
+-(void)getOperationState:(RCTPromiseResolveBlock)resolve reject:(RCTPromiseRejectBlock)reject {
+    // Checks are not deduplicated on iOS yet, there is no shared operation to report
+    resolve(@{@"state": @"idle", @"target": [NSNull null], @"waiting": @0});
+}
+
+-(void)cancelUpdate:(RCTPromiseResolveBlock)resolve reject:(RCTPromiseRejectBlock)reject {
+    // Checks are not tracked as operations on iOS yet, there is nothing to cancel
+    resolve(@{@"cancelled": @NO});
+}
+
+-(void)getRetainedBundles:(RCTPromiseResolveBlock)resolve reject:(RCTPromiseRejectBlock)reject {
+    // iOS keeps only the newest bundle, there is nothing to roll back to
+    resolve(@[]);
+}
+
+-(void)activateBundle:(NSString *)bundleName resolve:(RCTPromiseResolveBlock)resolve reject:(RCTPromiseRejectBlock)reject {
+    NSLog(@"OTA: Activating retained bundles is not supported on iOS yet");
+    reject(@"UNSUPPORTED", @"Activating retained bundles is only supported on Android", nil);
+}
+
+-(void)getMetrics:(RCTPromiseResolveBlock)resolve reject:(RCTPromiseRejectBlock)reject {
+    // Pipeline metrics are only recorded on Android for now
+    resolve(@{});
+}
+
+-(void)addListener:(NSString *)eventName {
+    // Progress events are only sent on Android for now
+}
+
+-(void)removeListeners:(double)count {
+}
+
 RCT_EXPORT_METHOD(setConfig:(NSString *)updateCheckUrl apiKey:(NSString *)apiKey) {
     NSLog(@"OTA: Setting config - updateCheckUrl: %@, apiKey: %@", updateCheckUrl, apiKey);
     _updateCheckUrl = updateCheckUrl;
     _apiKey = apiKey;
 }
 
+RCT_EXPORT_METHOD(setOptions:(NSDictionary *)options) {
+    // Download tuning options are only implemented on Android for now
+    NSLog(@"OTA: Setting options: %@", options);
+}
+
 @end
 
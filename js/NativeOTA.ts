@@ -8,6 +8,14 @@ export interface Spec extends TurboModule {
   getBundleUrl(): string;
   cleanupStorage(): Promise<{ success: boolean, deletedCount: number }>;
   setConfig(updateCheckUrl: string, apiKey: string): void;
+  setOptions(options: Object): void;
+  getOperationState(): Promise<{ state: string, target: string | null, waiting: number }>;
+  cancelUpdate(): Promise<{ cancelled: boolean }>;
+  getRetainedBundles(): Promise<Array<{ name: string, active: boolean, running: boolean, lastUsed: number, bytes: number }>>;
+  activateBundle(bundleName: string): Promise<{ success: boolean, bundle: string }>;
+  getMetrics(): Promise<Object>;
+  addListener(eventName: string): void;
+  removeListeners(count: number): void;
 }
 
 export default TurboModuleRegistry.getEnforcing<Spec>('OTA');
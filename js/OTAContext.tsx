@@ -1,9 +1,55 @@
 import React, { createContext, useContext, useState, ReactNode, useEffect } from 'react';
 import NativeOTA from './NativeOTA';
 
+export interface OTAOptions {
+  // Number of parallel range requests for large packages (1 disables segmented downloads)
+  downloadSegments?: number;
+  // Minimum package size before segmented downloads are used
+  segmentThresholdBytes?: number;
+  // Extract the package while it downloads instead of writing it to disk first
+  streamingInstall?: boolean;
+  // HTTP client shared by update checks and downloads
+  connectTimeoutMs?: number;
+  checkTimeoutMs?: number;
+  downloadTimeoutMs?: number;
+  maxIdleConnections?: number;
+  keepAliveMs?: number;
+  maxRequestsPerHost?: number;
+  dnsCacheTtlMs?: number;
+  // Random delay of up to this many ms before a network update check
+  checkJitterMs?: number;
+  // Backoff after failed checks, doubled per failure up to backoffMaxMs
+  backoffBaseMs?: number;
+  backoffMaxMs?: number;
+  // Progress events are sent at most every progressIntervalMs and every progressMinPercent
+  progressIntervalMs?: number;
+  progressMinPercent?: number;
+  // What is synced to disk before an installed bundle is moved in place, 'bundle' by default
+  installDurability?: 'none' | 'bundle' | 'full';
+  // Bundles kept per app version for local rollback, the active one included, 3 by default
+  retainBundles?: number;
+  // Byte quota for those bundles, 100 MB by default, 0 for none
+  retainBytes?: number;
+  // Size of the pooled copy buffers used by downloads, extraction and hashing, 64 by default
+  copyBufferKb?: number;
+  // Send every recorded metric sample as an OTAMetric event
+  metricEvents?: boolean;
+  // Native log level, 'info' by default
+  logLevel?: 'verbose' | 'debug' | 'info' | 'warn' | 'error' | 'none';
+  // Wrap pipeline stages in android.os.Trace sections, on by default
+  traceSections?: boolean;
+  // Check, download and install updates in a periodic background job (Android only)
+  backgroundPrefetch?: boolean;
+  prefetchIntervalMinutes?: number;
+  prefetchRequiresUnmetered?: boolean;
+  prefetchRequiresCharging?: boolean;
+  prefetchRequiresDeviceIdle?: boolean;
+}
+
 interface OTAConfig {
   updateCheckUrl: string;
   apiKey: string;
+  options?: OTAOptions;
 }
 
 interface OTAContextType {
@@ -43,12 +89,18 @@ export const OTAProvider: React.FC<OTAProviderProps> = ({
     if (initialConfig) {
       setConfigState(initialConfig);
       NativeOTA.setConfig(initialConfig.updateCheckUrl, initialConfig.apiKey);
+      if (initialConfig.options) {
+        NativeOTA.setOptions(initialConfig.options);
+      }
     }
   }, [propConfig, updateCheckUrl, apiKey]);
 
   const setConfig = (newConfig: OTAConfig) => {
     setConfigState(newConfig);
     NativeOTA.setConfig(newConfig.updateCheckUrl, newConfig.apiKey);
+    if (newConfig.options) {
+      NativeOTA.setOptions(newConfig.options);
+    }
   };
 
   const isConfigured = config !== null;
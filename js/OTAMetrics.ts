@@ -0,0 +1,26 @@
+import { NativeEventEmitter } from 'react-native';
+import NativeOTA from './NativeOTA';
+
+// Samples of one metric recorded since the process started. Names end with their unit.
+export interface OTAMetric {
+  count: number;
+  last: number;
+  total: number;
+  max: number;
+}
+
+export interface OTAMetricEvent {
+  name: string;
+  value: number;
+}
+
+const emitter = new NativeEventEmitter(NativeOTA);
+
+export function getMetrics(): Promise<Record<string, OTAMetric>> {
+  return NativeOTA.getMetrics() as Promise<Record<string, OTAMetric>>;
+}
+
+// Every recorded sample, only sent when the metricEvents option is enabled
+export function addMetricListener(listener: (event: OTAMetricEvent) => void) {
+  return emitter.addListener('OTAMetric', listener);
+}
@@ -0,0 +1,19 @@
+import { NativeEventEmitter } from 'react-native';
+import NativeOTA from './NativeOTA';
+
+export interface OTAProgressEvent {
+  phase: 'download' | 'extract';
+  bytesDone: number;
+  // -1 when the size is unknown
+  totalBytes: number;
+  bytesPerSecond: number;
+  // -1 when the remaining time is unknown
+  etaMs: number;
+}
+
+const emitter = new NativeEventEmitter(NativeOTA);
+
+// Progress of the update started by checkForUpdate, sent at most every progressIntervalMs
+export function addProgressListener(listener: (event: OTAProgressEvent) => void) {
+  return emitter.addListener('OTAProgress', listener);
+}
@@ -1,2 +1,4 @@
 export * from './OTAContext';
-export * from './NativeOTA'; 
\ No newline at end of file
+export * from './NativeOTA';
+export * from './OTAProgress';
+export * from './OTAMetrics'; 
\ No newline at end of file
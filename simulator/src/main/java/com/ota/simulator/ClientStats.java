@@ -0,0 +1,41 @@
+package com.ota.simulator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+// What the simulated fleet saw, summed over all clients
+public class ClientStats {
+    final LongAdder checksSent = new LongAdder();
+    final LongAdder cacheHits = new LongAdder();
+    final LongAdder notModified = new LongAdder();
+    final LongAdder backoffSkips = new LongAdder();
+    final LongAdder checkFailures = new LongAdder();
+    final LongAdder downloadsStarted = new LongAdder();
+    final LongAdder resumes = new LongAdder();
+    final LongAdder restarts = new LongAdder();
+    final LongAdder segmented = new LongAdder();
+    final LongAdder downloadFailures = new LongAdder();
+    final LongAdder hashMismatches = new LongAdder();
+    private final List<Long> timeToUpdateMs = new ArrayList<>();
+
+    synchronized void onUpdated(long elapsedMs) {
+        timeToUpdateMs.add(elapsedMs);
+    }
+
+    public synchronized int updatedCount() {
+        return timeToUpdateMs.size();
+    }
+
+    // Time from publishing the release until a client installed it, at the given percentile
+    public synchronized long timeToUpdatePercentile(double percentile) {
+        if (timeToUpdateMs.isEmpty()) {
+            return -1;
+        }
+        List<Long> sorted = new ArrayList<>(timeToUpdateMs);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+}
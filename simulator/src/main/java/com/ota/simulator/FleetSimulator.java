@@ -0,0 +1,193 @@
+package com.ota.simulator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+// Runs a fleet of simulated clients against the mock server: every client starts on the
+// old bundle, a new release is published after publishAtMs, and the run reports the load
+// the server saw and how long the fleet took to pick the release up.
+//
+//   gradle -p simulator run --args="--clients=5000 --jitterMs=30000 --checkErrorRate=0.05"
+//
+// Every option is --name=value, see Options for the names and defaults.
+public class FleetSimulator {
+    private static final String OLD_FILENAME = "bundle_0001";
+    private static final String NEW_FILENAME = "bundle_0002";
+
+    static class Options {
+        int clients = 2_000;
+        long durationMs = 60_000;
+        long publishAtMs = 5_000;
+        // Clients start spread over this window, like app starts over a day compressed
+        long rampMs = 5_000;
+        int packageKb = 512;
+        final SimulatedClient.Policy policy = new SimulatedClient.Policy();
+        final MockUpdateServer.Settings server = new MockUpdateServer.Settings();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = parse(args);
+        ServerStats serverStats = new ServerStats();
+        ClientStats clientStats = new ClientStats();
+        MockUpdateServer server = new MockUpdateServer(options.server, serverStats);
+        server.start();
+
+        byte[] oldPackage = packageBytes(options.packageKb, 1);
+        server.publish(OLD_FILENAME, oldPackage);
+
+        Dispatcher dispatcher = new Dispatcher();
+        // Devices do not queue behind each other, only the server limits concurrency. A
+        // segmented download has all its segments in flight at once.
+        int maxRequests = options.clients * Math.max(1, options.policy.downloadSegments);
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequests);
+        OkHttpClient httpClient = new OkHttpClient.Builder()
+            .dispatcher(dispatcher)
+            .connectionPool(new ConnectionPool(maxRequests, 1, TimeUnit.MINUTES))
+            .connectTimeout(15, TimeUnit.SECONDS)
+            .readTimeout(60, TimeUnit.SECONDS)
+            .build();
+
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(4);
+        AtomicLong publishedAt = new AtomicLong();
+        SimulatedClient[] clients = new SimulatedClient[options.clients];
+        Random random = new Random(0);
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new SimulatedClient(i, OLD_FILENAME, httpClient, scheduler, server.baseUrl(),
+                options.policy, clientStats, publishedAt);
+            clients[i].start(options.rampMs > 0 ? (long) (random.nextDouble() * options.rampMs) : 0);
+        }
+
+        System.out.println("Simulating " + options.clients + " clients for " + options.durationMs / 1000 + "s against " + server.baseUrl());
+        scheduler.schedule(() -> {
+            server.publish(NEW_FILENAME, packageBytes(options.packageKb, 2));
+            publishedAt.set(System.currentTimeMillis());
+            System.out.println("Published " + NEW_FILENAME);
+        }, options.publishAtMs, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(options.durationMs);
+        for (SimulatedClient client : clients) {
+            client.stop();
+        }
+        scheduler.shutdownNow();
+        httpClient.dispatcher().cancelAll();
+        httpClient.dispatcher().executorService().shutdownNow();
+        httpClient.connectionPool().evictAll();
+        server.stop();
+
+        report(options, serverStats, clientStats);
+    }
+
+    private static void report(Options options, ServerStats server, ClientStats clients) {
+        Map<Long, Long> perSecond = server.requestsPerSecond();
+        long peakSecond = 0;
+        long peak = 0;
+        long total = 0;
+        for (Map.Entry<Long, Long> second : perSecond.entrySet()) {
+            total += second.getValue();
+            if (second.getValue() > peak) {
+                peak = second.getValue();
+                peakSecond = second.getKey();
+            }
+        }
+
+        System.out.println();
+        System.out.println("Server");
+        System.out.println("  check requests     " + server.requests(ServerStats.CHECK));
+        System.out.println("  download requests  " + server.requests(ServerStats.DOWNLOAD));
+        System.out.println("  statuses           " + server.statuses());
+        System.out.println("  truncated bodies   " + server.truncated());
+        System.out.printf("  bytes served       %.1f MB%n", server.bytesServed() / 1e6);
+        System.out.printf("  QPS                avg %.1f, peak %d at %ds%n",
+            perSecond.isEmpty() ? 0.0 : (double) total / perSecond.size(), peak, peakSecond);
+        System.out.println("  requests/second    " + perSecond.values());
+
+        System.out.println();
+        System.out.println("Clients");
+        System.out.println("  updated            " + clients.updatedCount() + " of " + options.clients);
+        System.out.println("  time to update ms  p50 " + clients.timeToUpdatePercentile(50)
+            + ", p90 " + clients.timeToUpdatePercentile(90)
+            + ", p99 " + clients.timeToUpdatePercentile(99)
+            + ", max " + clients.timeToUpdatePercentile(100));
+        System.out.println("  checks sent        " + clients.checksSent.sum()
+            + " (cache hits " + clients.cacheHits.sum()
+            + ", not modified " + clients.notModified.sum()
+            + ", failed " + clients.checkFailures.sum()
+            + ", skipped in backoff " + clients.backoffSkips.sum() + ")");
+        System.out.println("  downloads          " + clients.downloadsStarted.sum()
+            + " (resumed " + clients.resumes.sum()
+            + ", restarted " + clients.restarts.sum()
+            + ", failed " + clients.downloadFailures.sum()
+            + ", segmented " + clients.segmented.sum()
+            + ", hash mismatch " + clients.hashMismatches.sum() + ")");
+    }
+
+    private static byte[] packageBytes(int kilobytes, long seed) {
+        byte[] bytes = new byte[kilobytes * 1024];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    static Options parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            values.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+
+        Options options = new Options();
+        options.clients = (int) take(values, "clients", options.clients);
+        options.durationMs = take(values, "durationMs", options.durationMs);
+        options.publishAtMs = take(values, "publishAtMs", options.publishAtMs);
+        options.rampMs = take(values, "rampMs", options.rampMs);
+        options.packageKb = (int) take(values, "packageKb", options.packageKb);
+
+        SimulatedClient.Policy policy = options.policy;
+        policy.jitterMs = take(values, "jitterMs", policy.jitterMs);
+        policy.backoffBaseMs = take(values, "backoffBaseMs", policy.backoffBaseMs);
+        policy.backoffMaxMs = take(values, "backoffMaxMs", policy.backoffMaxMs);
+        policy.checkIntervalMs = take(values, "checkIntervalMs", policy.checkIntervalMs);
+        policy.downloadSegments = (int) take(values, "downloadSegments", policy.downloadSegments);
+        policy.segmentThresholdBytes = take(values, "segmentThresholdKb", policy.segmentThresholdBytes / 1024) * 1024;
+
+        MockUpdateServer.Settings server = options.server;
+        server.threads = (int) take(values, "serverThreads", server.threads);
+        server.latencyMs = take(values, "latencyMs", server.latencyMs);
+        server.bandwidthBytesPerSecond = take(values, "bandwidthKbps", server.bandwidthBytesPerSecond / 1024) * 1024;
+        server.maxAgeSeconds = (int) take(values, "maxAgeSeconds", server.maxAgeSeconds);
+        server.retryAfterSeconds = (int) take(values, "retryAfterSeconds", server.retryAfterSeconds);
+        server.checkErrorRate = takeDouble(values, "checkErrorRate", server.checkErrorRate);
+        server.downloadErrorRate = takeDouble(values, "downloadErrorRate", server.downloadErrorRate);
+        if (values.containsKey("range")) {
+            server.supportsRange = Boolean.parseBoolean(values.remove("range"));
+        }
+        if (values.containsKey("checkEtag")) {
+            server.checkEtag = Boolean.parseBoolean(values.remove("checkEtag"));
+        }
+
+        if (!values.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options: " + values.keySet());
+        }
+        return options;
+    }
+
+    private static long take(Map<String, String> values, String name, long fallback) {
+        String value = values.remove(name);
+        return value != null ? Long.parseLong(value) : fallback;
+    }
+
+    private static double takeDouble(Map<String, String> values, String name, double fallback) {
+        String value = values.remove(name);
+        return value != null ? Double.parseDouble(value) : fallback;
+    }
+}
@@ -0,0 +1,302 @@
+package com.ota.simulator;
+
+import com.ota.core.CheckResponse;
+import com.ota.core.Digests;
+import com.ota.core.HttpRanges;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Local stand-in for the update backend. Implements the check endpoint the library calls
+// (GET /check?filename=<current bundle>) and serves packages under /packages/, with
+// configurable latency, per-response bandwidth, Range support and error rates. Check
+// responses carry ETag, Last-Modified and Cache-Control and honour both conditional headers.
+public class MockUpdateServer {
+    private static final String PACKAGE_PATH = "/packages/";
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    public static class Settings {
+        public int threads = 200;
+        // Added to every response before the status line is sent
+        public long latencyMs = 20;
+        // Per response, 0 for unlimited
+        public long bandwidthBytesPerSecond = 0;
+        // Share of checks answered with 503
+        public double checkErrorRate = 0;
+        // Share of downloads cut off half way through the body
+        public double downloadErrorRate = 0;
+        public boolean supportsRange = true;
+        // ETag on check responses. Without it clients revalidate with If-Modified-Since only.
+        public boolean checkEtag = true;
+        // Cache-Control max-age on check responses, 0 sends no-cache
+        public int maxAgeSeconds = 0;
+        // Retry-After on 503 responses, 0 sends none
+        public int retryAfterSeconds = 0;
+    }
+
+    private static class Package {
+        final byte[] bytes;
+        final String etag;
+        final String sha256;
+
+        Package(byte[] bytes) {
+            this.bytes = bytes;
+            this.sha256 = Digests.toHex(Digests.newSha256().digest(bytes));
+            this.etag = "\"" + sha256.substring(0, 16) + "\"";
+        }
+    }
+
+    private final Settings settings;
+    private final ServerStats stats;
+    private final Map<String, Package> packages = new ConcurrentHashMap<>();
+    private volatile String latestFilename;
+    // Last-Modified of check responses, every check answer changes when a release is published
+    private volatile String publishedAt;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public MockUpdateServer(Settings settings, ServerStats stats) {
+        this.settings = settings;
+        this.stats = stats;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        executor = Executors.newFixedThreadPool(settings.threads);
+        server.setExecutor(executor);
+        server.createContext("/check", this::handleCheck);
+        server.createContext(PACKAGE_PATH, this::handlePackage);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    // Makes filename the latest release, checks from other bundles are offered it from now on
+    public void publish(String filename, byte[] packageBytes) {
+        packages.put(filename, new Package(packageBytes));
+        latestFilename = filename;
+        publishedAt = httpDate(System.currentTimeMillis());
+    }
+
+    private void handleCheck(HttpExchange exchange) throws IOException {
+        try {
+            stats.onRequest(ServerStats.CHECK);
+            delay();
+
+            if (ThreadLocalRandom.current().nextDouble() < settings.checkErrorRate) {
+                if (settings.retryAfterSeconds > 0) {
+                    exchange.getResponseHeaders().set("Retry-After", Integer.toString(settings.retryAfterSeconds));
+                }
+                stats.onStatus(503);
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            String current = queryParameter(exchange.getRequestURI().getRawQuery(), "filename");
+            String latest = latestFilename;
+            String body;
+            if (latest == null || latest.equals(current)) {
+                body = CheckResponse.noUpdate();
+            } else {
+                Package latestPackage = packages.get(latest);
+                body = CheckResponse.update(latest, baseUrl() + PACKAGE_PATH + latest + ".zip", latestPackage.sha256);
+            }
+
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            String etag = "\"" + Digests.toHex(Digests.newSha256().digest(bytes)).substring(0, 16) + "\"";
+            String lastModified = publishedAt;
+            if (settings.checkEtag) {
+                exchange.getResponseHeaders().set("ETag", etag);
+            }
+            if (lastModified != null) {
+                exchange.getResponseHeaders().set("Last-Modified", lastModified);
+            }
+            exchange.getResponseHeaders().set("Cache-Control",
+                settings.maxAgeSeconds > 0 ? "max-age=" + settings.maxAgeSeconds : "no-cache");
+
+            if (notModified(exchange, settings.checkEtag ? etag : null, lastModified)) {
+                stats.onStatus(304);
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            stats.onStatus(200);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+            stats.onBytes(bytes.length);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // If-None-Match takes precedence, If-Modified-Since only counts when it is absent. Dates
+    // are compared as sent, clients echo the Last-Modified they got.
+    private static boolean notModified(HttpExchange exchange, String etag, String lastModified) {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch != null) {
+            return ifNoneMatch.equals(etag);
+        }
+        String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        return ifModifiedSince != null && ifModifiedSince.equals(lastModified);
+    }
+
+    private static String httpDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+    private void handlePackage(HttpExchange exchange) throws IOException {
+        try {
+            stats.onRequest(ServerStats.DOWNLOAD);
+            delay();
+
+            String path = exchange.getRequestURI().getPath();
+            String name = path.substring(PACKAGE_PATH.length());
+            Package served = name.endsWith(".zip") ? packages.get(name.substring(0, name.length() - 4)) : null;
+            if (served == null) {
+                stats.onStatus(404);
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            long length = served.bytes.length;
+            long start = 0;
+            long end = length - 1;
+            int status = 200;
+            exchange.getResponseHeaders().set("ETag", served.etag);
+            exchange.getResponseHeaders().set("Content-Type", "application/zip");
+
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (settings.supportsRange) {
+                exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            }
+            if (settings.supportsRange && range != null && range.startsWith("bytes=")
+                    && (ifRange == null || ifRange.equals(served.etag))) {
+                long[] bounds = parseRange(range.substring(6), length);
+                if (bounds == null) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + length);
+                    stats.onStatus(416);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                start = bounds[0];
+                end = bounds[1];
+                status = 206;
+                exchange.getResponseHeaders().set("Content-Range", HttpRanges.contentRange(start, end, length));
+            }
+
+            long count = end - start + 1;
+            // A failed transfer announces the full length and stops half way, like a dropped connection
+            long sendCount = ThreadLocalRandom.current().nextDouble() < settings.downloadErrorRate ? count / 2 : count;
+            stats.onStatus(status);
+            exchange.sendResponseHeaders(status, count);
+            OutputStream out = exchange.getResponseBody();
+            writeThrottled(out, served.bytes, (int) start, sendCount);
+            if (sendCount < count) {
+                stats.onTruncated();
+                return;
+            }
+            out.close();
+        } catch (IOException e) {
+            // The client went away
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void writeThrottled(OutputStream out, byte[] bytes, int offset, long count) throws IOException {
+        long bandwidth = settings.bandwidthBytesPerSecond;
+        long startedAt = System.nanoTime();
+        long written = 0;
+        while (written < count) {
+            int chunk = (int) Math.min(CHUNK_SIZE, count - written);
+            out.write(bytes, offset + (int) written, chunk);
+            written += chunk;
+            stats.onBytes(chunk);
+            if (bandwidth > 0) {
+                long aheadNanos = written * 1_000_000_000L / bandwidth - (System.nanoTime() - startedAt);
+                if (aheadNanos > 0) {
+                    sleep(TimeUnit.NANOSECONDS.toMillis(aheadNanos));
+                }
+            }
+        }
+        out.flush();
+    }
+
+    // "start-end", "start-" or "-suffix", returns null when not satisfiable
+    static long[] parseRange(String spec, long length) {
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                start = Math.max(0, length - Long.parseLong(last));
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(length - 1, Long.parseLong(last));
+            }
+            return start < length && start <= end ? new long[] { start, end } : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String queryParameter(String query, String name) throws IOException {
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0 && pair.substring(0, equals).equals(name)) {
+                return URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    private void delay() {
+        if (settings.latencyMs > 0) {
+            sleep(settings.latencyMs);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
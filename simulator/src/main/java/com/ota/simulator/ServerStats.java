@@ -0,0 +1,74 @@
+package com.ota.simulator;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Request, status and byte counters of the mock server, bucketed per second of the run
+public class ServerStats {
+    public static final String CHECK = "check";
+    public static final String DOWNLOAD = "download";
+
+    private final long startedAt = System.nanoTime();
+    private final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, LongAdder> requestsPerSecond = new ConcurrentSkipListMap<>();
+    private final LongAdder bytesServed = new LongAdder();
+    private final LongAdder truncated = new LongAdder();
+
+    void onRequest(String kind) {
+        requests.computeIfAbsent(kind, k -> new LongAdder()).increment();
+        requestsPerSecond.computeIfAbsent(secondsSinceStart(), k -> new LongAdder()).increment();
+    }
+
+    void onStatus(int status) {
+        statuses.computeIfAbsent(status, k -> new LongAdder()).increment();
+    }
+
+    void onBytes(long count) {
+        bytesServed.add(count);
+    }
+
+    void onTruncated() {
+        truncated.increment();
+    }
+
+    public long requests(String kind) {
+        LongAdder count = requests.get(kind);
+        return count != null ? count.sum() : 0;
+    }
+
+    public Map<Integer, Long> statuses() {
+        Map<Integer, Long> snapshot = new TreeMap<>();
+        statuses.forEach((status, count) -> snapshot.put(status, count.sum()));
+        return snapshot;
+    }
+
+    // Requests per second keyed by second since the server started, seconds without requests
+    // are included as 0
+    public Map<Long, Long> requestsPerSecond() {
+        Map<Long, Long> snapshot = new TreeMap<>();
+        if (requestsPerSecond.isEmpty()) {
+            return snapshot;
+        }
+        for (long second = 0; second <= requestsPerSecond.lastKey(); second++) {
+            LongAdder count = requestsPerSecond.get(second);
+            snapshot.put(second, count != null ? count.sum() : 0);
+        }
+        return snapshot;
+    }
+
+    public long bytesServed() {
+        return bytesServed.sum();
+    }
+
+    public long truncated() {
+        return truncated.sum();
+    }
+
+    private long secondsSinceStart() {
+        return (System.nanoTime() - startedAt) / 1_000_000_000L;
+    }
+}
@@ -0,0 +1,426 @@
+package com.ota.simulator;
+
+import com.ota.core.Backoff;
+import com.ota.core.CachedCheck;
+import com.ota.core.CheckPolicy;
+import com.ota.core.CheckResponse;
+import com.ota.core.CheckSchedule;
+import com.ota.core.Digests;
+import com.ota.core.HttpRanges;
+import com.ota.core.StreamCopy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// One app install. Follows the library's check flow: cached answer while fresh, backoff
+// window, start jitter, conditional request, then a resumable download of the package,
+// segmented like OTADownloadHandler when enabled. CheckPolicy, CachedCheck, CheckSchedule
+// and HttpRanges from com.ota.core make every decision, shared with the app; the Android
+// bound parts (storage, bundle install) are replaced by in-memory state.
+class SimulatedClient {
+    // Same as OTADownloadHandler
+    private static final int MAX_RESUME_ATTEMPTS = 3;
+    private static final int BUFFER_SIZE = 4096;
+
+    static class Policy {
+        long jitterMs = 1_000;
+        long backoffBaseMs = 30_000;
+        long backoffMaxMs = 60 * 60_000;
+        // Time between checks, standing in for app starts and background prefetch runs
+        long checkIntervalMs = 10_000;
+        // Same defaults as OTADownloadHandler.setSegmentedDownload
+        int downloadSegments = 1;
+        long segmentThresholdBytes = 8 * 1024 * 1024;
+    }
+
+    // A partial download survives a failed check, the next one resumes it
+    private static class Download {
+        final String url;
+        final String filename;
+        final String sha256;
+        MessageDigest digest = Digests.newSha256();
+        long bytesDone = 0;
+        String validator;
+        int attempt = 0;
+        // Set once the probe allowed parallel ranges, {start, end} and bytes done per segment
+        long[][] segments;
+        AtomicLongArray segmentDone;
+
+        Download(String url, String filename, String sha256) {
+            this.url = url;
+            this.filename = filename;
+            this.sha256 = sha256;
+        }
+    }
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+        }
+    };
+
+    private final OkHttpClient httpClient;
+    private final ScheduledExecutorService scheduler;
+    private final String baseUrl;
+    private final Policy policy;
+    private final ClientStats stats;
+    private final AtomicLong publishedAt;
+    private final Random random;
+    private volatile boolean stopped = false;
+
+    private String currentFilename;
+    private CachedCheck cached;
+    private final CheckSchedule schedule = new CheckSchedule(0, 0);
+    private Download download;
+
+    SimulatedClient(int id, String initialFilename, OkHttpClient httpClient, ScheduledExecutorService scheduler,
+                    String baseUrl, Policy policy, ClientStats stats, AtomicLong publishedAt) {
+        this.currentFilename = initialFilename;
+        this.httpClient = httpClient;
+        this.scheduler = scheduler;
+        this.baseUrl = baseUrl;
+        this.policy = policy;
+        this.stats = stats;
+        this.publishedAt = publishedAt;
+        this.random = new Random(id);
+    }
+
+    void start(long delayMs) {
+        scheduler.schedule(this::check, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    private void scheduleNext() {
+        if (!stopped) {
+            scheduler.schedule(this::check, policy.checkIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void check() {
+        if (stopped) {
+            return;
+        }
+        switch (CheckPolicy.start(cached, schedule, System.currentTimeMillis())) {
+            case CACHED:
+                stats.cacheHits.increment();
+                handleBody(cached.body);
+                return;
+            case BACKING_OFF:
+                stats.backoffSkips.increment();
+                scheduleNext();
+                return;
+            default:
+                scheduler.schedule(this::sendCheck, Backoff.jitterMs(policy.jitterMs, random), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sendCheck() {
+        HttpUrl url = HttpUrl.parse(baseUrl + "/check").newBuilder()
+            .addQueryParameter("filename", currentFilename)
+            .build();
+        Request.Builder request = new Request.Builder().url(url).get();
+        CachedCheck revalidating = cached;
+        if (revalidating != null) {
+            for (Map.Entry<String, String> header : revalidating.conditionalHeaders().entrySet()) {
+                request.header(header.getKey(), header.getValue());
+            }
+        }
+
+        stats.checksSent.increment();
+        httpClient.newCall(request.build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                onCheckFailed(-1, null);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (ResponseBody body = response.body()) {
+                    String data = response.isSuccessful() && body != null ? body.string() : null;
+                    long now = System.currentTimeMillis();
+                    switch (CheckPolicy.outcome(response.code(), data != null, revalidating)) {
+                        case NOT_MODIFIED:
+                            stats.notModified.increment();
+                            schedule.onSuccess();
+                            cached = revalidating.revalidated(response.header("ETag"), response.header("Last-Modified"),
+                                response.headers("Cache-Control"), now);
+                            handleBody(revalidating.body);
+                            return;
+                        case UPDATED:
+                            schedule.onSuccess();
+                            cached = CachedCheck.fromResponse(data, response.header("ETag"),
+                                response.header("Last-Modified"), response.headers("Cache-Control"), now);
+                            handleBody(data);
+                            return;
+                        case RETRY_LATER:
+                            onCheckFailed(response.code(), response.header("Retry-After"));
+                            return;
+                        default:
+                            scheduleNext();
+                    }
+                } catch (IOException e) {
+                    onCheckFailed(-1, null);
+                }
+            }
+        });
+    }
+
+    private void onCheckFailed(int statusCode, String retryAfter) {
+        stats.checkFailures.increment();
+        schedule.onFailure(statusCode, retryAfter, policy.backoffBaseMs, policy.backoffMaxMs, random,
+            System.currentTimeMillis());
+        scheduleNext();
+    }
+
+    private void handleBody(String body) {
+        CheckResponse check;
+        try {
+            check = CheckResponse.parse(body);
+        } catch (RuntimeException e) {
+            scheduleNext();
+            return;
+        }
+        if (!check.updateAvailable || check.manifest != null || !check.signedUrlMatchesFilename()) {
+            scheduleNext();
+            return;
+        }
+
+        if (download == null || !download.filename.equals(check.filename)) {
+            download = new Download(check.signedUrl, check.filename, check.sha256);
+        }
+        download.attempt = 0;
+        stats.downloadsStarted.increment();
+        sendDownload(download);
+    }
+
+    private void sendDownload(Download current) {
+        if (current.segments != null) {
+            downloadSegments(current, null, null);
+            return;
+        }
+        Request.Builder request = new Request.Builder().url(current.url);
+        if (current.bytesDone > 0 && current.validator != null) {
+            request.header("Range", "bytes=" + current.bytesDone + "-").header("If-Range", current.validator);
+        } else if (policy.downloadSegments > 1) {
+            // Same probe as OTADownloadHandler, a 206 with the total length allows segments
+            request.header("Range", "bytes=0-");
+        }
+
+        httpClient.newCall(request.build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                retryOrFail(current);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                if (current.bytesDone == 0 && startSegmented(current, call, response)) {
+                    return;
+                }
+                try (ResponseBody body = response.body()) {
+                    boolean resumed = response.code() == 206
+                        && HttpRanges.rangeStart(response.header("Content-Range")) == current.bytesDone;
+                    if (!resumed) {
+                        if (current.bytesDone > 0) {
+                            stats.restarts.increment();
+                        }
+                        current.digest = Digests.newSha256();
+                        current.bytesDone = 0;
+                    }
+                    if (!response.isSuccessful()) {
+                        retryOrFail(current);
+                        return;
+                    }
+                    current.validator = HttpRanges.validator(response.header("ETag"), response.header("Last-Modified"));
+
+                    try (InputStream in = body.byteStream()) {
+                        StreamCopy.copy(in, DISCARD, new byte[BUFFER_SIZE], current.digest,
+                            length -> current.bytesDone += length);
+                    }
+                    onDownloaded(current);
+                } catch (IOException e) {
+                    retryOrFail(current);
+                }
+            }
+        });
+    }
+
+    private boolean startSegmented(Download current, Call probeCall, Response response) {
+        String contentRange = response.header("Content-Range");
+        String validator = HttpRanges.validator(response.header("ETag"), response.header("Last-Modified"));
+        if (!HttpRanges.canSegment(policy.downloadSegments, policy.segmentThresholdBytes, response.code(),
+                contentRange, validator)) {
+            return false;
+        }
+        current.validator = validator;
+        current.segments = HttpRanges.segments(HttpRanges.rangeTotal(contentRange), policy.downloadSegments);
+        current.segmentDone = new AtomicLongArray(current.segments.length);
+        stats.segmented.increment();
+        downloadSegments(current, probeCall, response);
+        return true;
+    }
+
+    // One round of parallel range requests for the unfinished segments. firstResponse is the
+    // probe, it serves segment 0 and is cancelled with the others.
+    private void downloadSegments(Download current, Call firstCall, Response firstResponse) {
+        List<Call> calls = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        int firstIndex = -1;
+        for (int i = 0; i < current.segments.length; i++) {
+            long from = current.segments[i][0] + current.segmentDone.get(i);
+            if (from > current.segments[i][1]) {
+                continue;
+            }
+            if (firstResponse != null && from == 0) {
+                firstIndex = i;
+                continue;
+            }
+            Request request = new Request.Builder()
+                .url(current.url)
+                .header("Range", "bytes=" + from + "-" + current.segments[i][1])
+                .header("If-Range", current.validator)
+                .build();
+            calls.add(httpClient.newCall(request));
+            indexes.add(i);
+        }
+        if (firstCall != null) {
+            calls.add(firstCall);
+        }
+
+        int segments = indexes.size() + (firstIndex >= 0 ? 1 : 0);
+        if (segments == 0) {
+            // Nothing left to fetch, the failed round got every byte after all
+            onDownloaded(current);
+            return;
+        }
+        SegmentRound round = new SegmentRound(calls, segments);
+        for (int i = 0; i < indexes.size(); i++) {
+            int index = indexes.get(i);
+            long from = current.segments[index][0] + current.segmentDone.get(index);
+            calls.get(i).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    onSegmentFailed(current, round, false);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    if (response.code() != 206 || HttpRanges.rangeStart(response.header("Content-Range")) != from) {
+                        // The package changed on the server, partial segments can no longer be trusted
+                        response.close();
+                        onSegmentFailed(current, round, true);
+                        return;
+                    }
+                    readSegment(current, round, index, response);
+                }
+            });
+        }
+        if (firstIndex >= 0) {
+            readSegment(current, round, firstIndex, firstResponse);
+        }
+    }
+
+    private void readSegment(Download current, SegmentRound round, int index, Response response) {
+        long length = current.segments[index][1] - current.segments[index][0] + 1;
+        try (ResponseBody body = response.body(); InputStream in = body.byteStream()) {
+            StreamCopy.copy(in, DISCARD, new byte[BUFFER_SIZE], null, bytes -> {
+                if (!round.failed.get()) {
+                    current.segmentDone.addAndGet(index, bytes);
+                }
+            });
+            if (current.segmentDone.get(index) < length) {
+                throw new IOException("Segment ended early");
+            }
+        } catch (IOException e) {
+            onSegmentFailed(current, round, false);
+            return;
+        }
+        if (round.remaining.decrementAndGet() == 0) {
+            onDownloaded(current);
+        }
+    }
+
+    // The first failure cancels the round and retries the unfinished segments
+    private void onSegmentFailed(Download current, SegmentRound round, boolean invalidated) {
+        if (!round.failed.compareAndSet(false, true)) {
+            return;
+        }
+        for (Call call : round.calls) {
+            call.cancel();
+        }
+        if (invalidated) {
+            stats.restarts.increment();
+            current.segments = null;
+            current.segmentDone = null;
+        }
+        retryOrFail(current);
+    }
+
+    private void retryOrFail(Download current) {
+        if (current.attempt < MAX_RESUME_ATTEMPTS && current.validator != null) {
+            current.attempt++;
+            stats.resumes.increment();
+            sendDownload(current);
+            return;
+        }
+        stats.downloadFailures.increment();
+        scheduleNext();
+    }
+
+    private void onDownloaded(Download current) {
+        download = null;
+        // The app hashes a segmented download from the finished file, the simulator keeps
+        // no file and only verifies single stream downloads
+        if (current.segments == null && current.sha256 != null
+                && !Digests.toHex(current.digest.digest()).equals(current.sha256)) {
+            stats.hashMismatches.increment();
+            scheduleNext();
+            return;
+        }
+
+        // Installed: the next check reports the new bundle, the cached answer was for the old one
+        currentFilename = current.filename;
+        cached = null;
+        long published = publishedAt.get();
+        if (published > 0) {
+            stats.onUpdated(System.currentTimeMillis() - published);
+        }
+        scheduleNext();
+    }
+
+    private static class SegmentRound {
+        final List<Call> calls;
+        final AtomicInteger remaining;
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        SegmentRound(List<Call> calls, int segments) {
+            this.calls = calls;
+            this.remaining = new AtomicInteger(segments);
+        }
+    }
+}